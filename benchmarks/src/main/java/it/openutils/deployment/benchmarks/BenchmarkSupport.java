@@ -0,0 +1,103 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+
+
+/**
+ * Utilities shared by benchmarks.
+ * @author fgiust
+ * @version $Id$
+ */
+final class BenchmarkSupport
+{
+
+    private BenchmarkSupport()
+    {
+        // don't instantiate
+    }
+
+    /**
+     * Writes a property file with the given number of keys. Keys are shared between files, values are not.
+     * @param file file to write
+     * @param keys number of keys
+     * @param prefix value prefix
+     * @throws IOException if the file can't be written
+     */
+    static void writeProperties(File file, int keys, String prefix) throws IOException
+    {
+        Properties properties = new Properties();
+        for (int j = 0; j < keys; j++)
+        {
+            properties.setProperty(key(j), prefix + "-value-" + j);
+        }
+        file.getParentFile().mkdirs();
+        try (OutputStream out = Files.newOutputStream(file.toPath()))
+        {
+            properties.store(out, null);
+        }
+    }
+
+    /**
+     * @param index key index
+     * @return key name
+     */
+    static String key(int index)
+    {
+        return "benchmark.property." + index;
+    }
+
+    /**
+     * Deletes a directory tree.
+     * @param dir directory
+     * @throws IOException if files can't be deleted
+     */
+    static void delete(File dir) throws IOException
+    {
+        if (dir == null || !dir.exists())
+        {
+            return;
+        }
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>()
+        {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException exc) throws IOException
+            {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.benchmarks;
+
+import it.openutils.deployment.spring.DatabaseEnvironmentPropertyConfigurer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+
+/**
+ * Measures {@link DatabaseEnvironmentPropertyConfigurer#refresh()} against an embedded H2 database.
+ * @author fgiust
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseRefreshBenchmark
+{
+
+    @Param({"1000", "10000", "100000" })
+    public int rows;
+
+    /**
+     * Incremental refresh: after the first load, only changed rows are fetched.
+     */
+    @Param({"false", "true" })
+    public boolean delta;
+
+    /**
+     * Probe query: unchanged data skips the reload.
+     */
+    @Param({"false", "true" })
+    public boolean probe;
+
+    private GenericApplicationContext context;
+
+    private DatabaseEnvironmentPropertyConfigurer configurer;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:refresh" + rows
+            + ";DB_CLOSE_DELAY=-1");
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE config (name VARCHAR(255) PRIMARY KEY, val VARCHAR(255), version BIGINT)");
+        jdbcTemplate.execute("INSERT INTO config SELECT 'benchmark.property.' || X, 'value-' || X, X "
+            + "FROM SYSTEM_RANGE(1, "
+            + rows
+            + ")");
+
+        context = new GenericApplicationContext();
+        context.getBeanFactory().registerSingleton("dataSource", dataSource);
+        context.refresh();
+
+        configurer = new DatabaseEnvironmentPropertyConfigurer();
+        configurer.setApplicationContext(context);
+        configurer.setDataSourceName("dataSource");
+        configurer.setSqlQuery("SELECT name, val, version FROM config");
+        if (delta)
+        {
+            configurer.setVersionColumn("version");
+        }
+        if (probe)
+        {
+            configurer.setProbeQuery("SELECT MAX(version) FROM config");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        new JdbcTemplate((javax.sql.DataSource) context.getBean("dataSource")).execute("SHUTDOWN");
+        context.close();
+    }
+
+    @Benchmark
+    public int refresh()
+    {
+        configurer.refresh();
+        return configurer.getPropertyStore().size();
+    }
+}
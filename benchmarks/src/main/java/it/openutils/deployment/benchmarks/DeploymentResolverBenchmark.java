@@ -0,0 +1,125 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.benchmarks;
+
+import it.openutils.deployment.ConfigTreeIndex;
+import it.openutils.deployment.log4j.DeploymentResolver;
+import it.openutils.deployment.log4j.EnvironmentLog4jConfigListener;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.FileSystemResourceLoader;
+import org.springframework.mock.web.MockServletContext;
+
+
+/**
+ * Measures {@link DeploymentResolver#resolveServerRelativeLocation} over a WEB-INF/config tree with many server
+ * folders. The configuration is only available in the last (least specific) candidate, so every location is probed.
+ * The {@link ConfigTreeIndex} cached in the servlet context is dropped before each resolution, so that the walk of the
+ * tree is measured as at startup; {@link #buildIndex()} measures the walk alone.
+ * @author fgiust
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeploymentResolverBenchmark
+{
+
+    /**
+     * Number of server folders in WEB-INF/config.
+     */
+    @Param({"10", "100", "1000" })
+    public int servers;
+
+    /**
+     * Depth of each server folder.
+     */
+    @Param({"1", "4" })
+    public int depth;
+
+    private File root;
+
+    private File webapp;
+
+    private MockServletContext servletContext;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        root = Files.createTempDirectory("resolver-benchmark").toFile();
+        webapp = new File(root, "webapp");
+        File config = new File(webapp, "WEB-INF/config");
+
+        for (int j = 0; j < servers; j++)
+        {
+            File dir = new File(config, "server" + j);
+            for (int k = 1; k < depth; k++)
+            {
+                dir = new File(dir, "level" + k);
+            }
+            dir.mkdirs();
+            Files.write(new File(dir, "log4j2.xml").toPath(), "<Configuration />".getBytes("UTF-8"));
+        }
+        Files.write(new File(config, "log4j2.xml").toPath(), "<Configuration />".getBytes("UTF-8"));
+
+        servletContext = new MockServletContext("file:" + webapp.getAbsolutePath(), new FileSystemResourceLoader());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        BenchmarkSupport.delete(root);
+    }
+
+    @Benchmark
+    public File resolveServerRelativeLocation() throws FileNotFoundException
+    {
+        // built once per webapp start, not shared between invocations
+        servletContext.removeAttribute(ConfigTreeIndex.ATTRIBUTE);
+        return DeploymentResolver.resolveServerRelativeLocation(
+            servletContext,
+            EnvironmentLog4jConfigListener.DEFAULT_INITIALIZATION_PARAMETER);
+    }
+
+    @Benchmark
+    public ConfigTreeIndex buildIndex()
+    {
+        return ConfigTreeIndex.build(webapp.toPath());
+    }
+}
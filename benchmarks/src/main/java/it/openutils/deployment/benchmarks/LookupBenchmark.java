@@ -0,0 +1,141 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.benchmarks;
+
+import it.openutils.deployment.spring.EnvironmentPropertyConfigurer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+
+/**
+ * Measures {@link EnvironmentPropertyConfigurer#getProperty(String)} and the typed accessors throughput under
+ * contention, from 1 to 64 threads.
+ * @author fgiust
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark
+{
+
+    @Param({"100", "10000" })
+    public int keys;
+
+    private File dir;
+
+    private EnvironmentPropertyConfigurer configurer;
+
+    private String[] lookupKeys;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        dir = Files.createTempDirectory("lookup-benchmark").toFile();
+        File file = new File(dir, "environment.properties");
+        BenchmarkSupport.writeProperties(file, keys, "lookup");
+
+        configurer = new EnvironmentPropertyConfigurer();
+        configurer.setFileLocation("file:" + file.getAbsolutePath());
+        configurer.postProcessBeanFactory(new DefaultListableBeanFactory());
+
+        // half hits, half misses
+        lookupKeys = new String[1024];
+        for (int j = 0; j < lookupKeys.length; j++)
+        {
+            lookupKeys[j] = BenchmarkSupport.key(j % 2 == 0 ? j % keys : keys + j);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        BenchmarkSupport.delete(dir);
+    }
+
+    private String randomKey()
+    {
+        return lookupKeys[ThreadLocalRandom.current().nextInt(lookupKeys.length)];
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String getProperty1()
+    {
+        return configurer.getProperty(randomKey());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String getProperty4()
+    {
+        return configurer.getProperty(randomKey());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String getProperty16()
+    {
+        return configurer.getProperty(randomKey());
+    }
+
+    @Benchmark
+    @Threads(64)
+    public String getProperty64()
+    {
+        return configurer.getProperty(randomKey());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String getPropertiesGetProperty16()
+    {
+        // the Properties view, as used by legacy callers
+        return configurer.getProperties().getProperty(randomKey());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public java.util.List<String> getList16()
+    {
+        return configurer.getList(randomKey());
+    }
+}
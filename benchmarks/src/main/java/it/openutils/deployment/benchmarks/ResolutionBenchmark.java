@@ -0,0 +1,133 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.benchmarks;
+
+import it.openutils.deployment.ServerIdentity;
+import it.openutils.deployment.spring.EnvironmentPropertyConfigurer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+
+/**
+ * Measures a full resolution in {@link EnvironmentPropertyConfigurer#postProcessBeanFactory}: template substitution,
+ * probing of each candidate location and loading of the existing files. Only half of the candidate locations exist.
+ * @author fgiust
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolutionBenchmark
+{
+
+    /**
+     * Number of candidate locations.
+     */
+    @Param({"2", "8", "16" })
+    public int locations;
+
+    /**
+     * Number of keys in each existing file.
+     */
+    @Param({"100", "1000", "10000" })
+    public int keys;
+
+    /**
+     * Number of additional system properties.
+     */
+    @Param({"0", "1000" })
+    public int systemProperties;
+
+    @Param({"false", "true" })
+    public boolean parallelLoading;
+
+    private File dir;
+
+    private String fileLocation;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        dir = Files.createTempDirectory("resolution-benchmark").toFile();
+
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < locations; j++)
+        {
+            File file = new File(dir, "location" + j + "/${env}/environment.properties");
+            if (j % 2 == 1)
+            {
+                BenchmarkSupport.writeProperties(
+                    new File(dir, "location" + j + "/" + ServerIdentity.getServerName() + "/environment.properties"),
+                    keys,
+                    "location" + j);
+            }
+            if (sb.length() > 0)
+            {
+                sb.append(',');
+            }
+            sb.append("file:").append(file.getAbsolutePath());
+        }
+        fileLocation = sb.toString();
+
+        for (int j = 0; j < systemProperties; j++)
+        {
+            System.setProperty("benchmark.system." + j, "value" + j);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        for (int j = 0; j < systemProperties; j++)
+        {
+            System.clearProperty("benchmark.system." + j);
+        }
+        BenchmarkSupport.delete(dir);
+    }
+
+    @Benchmark
+    public EnvironmentPropertyConfigurer postProcessBeanFactory()
+    {
+        EnvironmentPropertyConfigurer configurer = new EnvironmentPropertyConfigurer();
+        configurer.setFileLocation(fileLocation);
+        configurer.setParallelLoading(parallelLoading);
+        configurer.postProcessBeanFactory(new DefaultListableBeanFactory());
+        return configurer;
+    }
+}
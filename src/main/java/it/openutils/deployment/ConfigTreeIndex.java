@@ -0,0 +1,223 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.servlet.ServletContext;
+
+import org.apache.commons.lang3.StringUtils;
+
+
+/**
+ * Immutable index of the files in the <code>WEB-INF/config</code> directory of an exploded webapp, built with a single
+ * directory walk. The log4j listener and the spring configurers look up candidate locations in this index instead of
+ * probing the filesystem for each of them, which is slow on network filesystems where every miss is a round trip.
+ * <p>
+ * The index is built once and shared as a servlet context attribute. Paths outside the indexed directory, and any
+ * path when the webapp is not exploded, must still be probed by the caller. Like {@link ServerIdentity} this class
+ * doesn't use any logging framework, since it is used while logging is being configured.
+ * </p>
+ * <p>
+ * Lookups are case sensitive. Since the index can't tell if the filesystem is case insensitive (e.g. on Windows or
+ * macOS), a path that only matches an indexed file ignoring case is probed on the filesystem, so it's found exactly
+ * as a direct probe would find it.
+ * </p>
+ * @author fgiust
+ * @version $Id$
+ */
+public final class ConfigTreeIndex
+{
+
+    /**
+     * Servlet context attribute holding the shared index.
+     */
+    public static final String ATTRIBUTE = ConfigTreeIndex.class.getName();
+
+    /**
+     * Indexed directory, relative to the webapp root.
+     */
+    public static final String CONFIG_DIRECTORY = "WEB-INF/config";
+
+    private final Path root;
+
+    private final Set<String> files;
+
+    /**
+     * Indexed paths, lowercase.
+     */
+    private final Set<String> lowerCaseFiles;
+
+    private ConfigTreeIndex(Path root, Set<String> files)
+    {
+        this.root = root;
+        this.files = files;
+        this.lowerCaseFiles = new HashSet<>();
+        for (String file : files)
+        {
+            lowerCaseFiles.add(file.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Returns the index for a webapp, building it on first use.
+     * @param context servlet context
+     * @return index, <code>null</code> if the webapp is not exploded or the directory can't be read
+     */
+    public static ConfigTreeIndex get(ServletContext context)
+    {
+        Object cached = context.getAttribute(ATTRIBUTE);
+        if (cached instanceof ConfigTreeIndex)
+        {
+            return (ConfigTreeIndex) cached;
+        }
+
+        String rootPath = context.getRealPath("/");
+        if (rootPath == null)
+        {
+            return null;
+        }
+
+        ConfigTreeIndex index = build(Paths.get(rootPath));
+        if (index != null)
+        {
+            context.setAttribute(ATTRIBUTE, index);
+        }
+        return index;
+    }
+
+    /**
+     * Builds an index of the <code>WEB-INF/config</code> directory under the given root.
+     * @param root webapp root
+     * @return index, <code>null</code> if the directory can't be read
+     */
+    public static ConfigTreeIndex build(final Path root)
+    {
+        Path configDir = root.resolve(CONFIG_DIRECTORY);
+        final Set<String> files = new HashSet<>();
+        if (Files.isDirectory(configDir))
+        {
+            try
+            {
+                Files.walkFileTree(
+                    configDir,
+                    EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                    Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>()
+                    {
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                        {
+                            if (attrs.isRegularFile())
+                            {
+                                files.add(StringUtils.replace(root.relativize(file).toString(), "\\", "/"));
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+            }
+            catch (IOException e)
+            {
+                return null;
+            }
+        }
+        return new ConfigTreeIndex(root, Collections.unmodifiableSet(files));
+    }
+
+    /**
+     * Checks if a path is covered by this index, so that {@link #isFile(String)} can be used instead of probing the
+     * filesystem.
+     * @param path path relative to the webapp root, with or without a leading slash
+     * @return <code>true</code> if the path is in the indexed directory
+     */
+    public boolean covers(String path)
+    {
+        String normalized = normalize(path);
+        return normalized != null && normalized.startsWith(CONFIG_DIRECTORY + "/");
+    }
+
+    /**
+     * Checks if a file exists. Only meaningful for paths {@link #covers(String) covered} by this index. A path that
+     * only differs in case from an indexed file is probed on the filesystem.
+     * @param path path relative to the webapp root, with or without a leading slash
+     * @return <code>true</code> if the path is an existing file (not a directory)
+     */
+    public boolean isFile(String path)
+    {
+        String normalized = normalize(path);
+        if (normalized == null)
+        {
+            return false;
+        }
+        if (files.contains(normalized))
+        {
+            return true;
+        }
+        // found on a case insensitive filesystem only
+        return lowerCaseFiles.contains(normalized.toLowerCase(Locale.ROOT))
+            && Files.isRegularFile(root.resolve(normalized));
+    }
+
+    /**
+     * Returns the number of indexed files.
+     * @return number of files
+     */
+    public int size()
+    {
+        return files.size();
+    }
+
+    /**
+     * Normalizes a relative path.
+     * @param path path
+     * @return path without leading slash and with forward slashes only, <code>null</code> if the path contains
+     * relative segments that can't be handled without the filesystem
+     */
+    private static String normalize(String path)
+    {
+        if (path == null)
+        {
+            return null;
+        }
+        String normalized = StringUtils.replace(StringUtils.trim(path), "\\", "/");
+        while (normalized.contains("//"))
+        {
+            normalized = StringUtils.replace(normalized, "//", "/");
+        }
+        normalized = StringUtils.removeStart(normalized, "/");
+        if (normalized.startsWith("./") || normalized.contains("/./") || normalized.contains("..")
+            || normalized.endsWith("/."))
+        {
+            return null;
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+
+/**
+ * Resolves the name of the current server, shared by the spring and log4j support classes. The name is resolved once
+ * per JVM and cached, checking in order:
+ * <ol>
+ * <li>the <code>deployment.servername</code> system property</li>
+ * <li>the <code>DEPLOYMENT_SERVERNAME</code> environment variable</li>
+ * <li>the content of <code>/etc/hostname</code></li>
+ * <li><code>InetAddress.getLocalHost().getHostName()</code>, with a timeout of 5 seconds that can be changed using
+ * the <code>deployment.servername.timeout</code> system property (milliseconds)</li>
+ * </ol>
+ * <p>
+ * The returned name is always lowercase and without domain. This class doesn't use any logging framework, since it
+ * can be used while logging is being configured.
+ * </p>
+ * <p>
+ * Only a name actually found is cached. If the lookup times out, the lookup thread is left running and later calls
+ * take its result as soon as it completes, without waiting again; a failed lookup is retried at the next call.
+ * </p>
+ * @author fgiust
+ * @version $Id$
+ */
+public final class ServerIdentity
+{
+
+    /**
+     * System property that overrides the server name.
+     */
+    public static final String SERVER_NAME_PROPERTY = "deployment.servername";
+
+    /**
+     * Environment variable that overrides the server name.
+     */
+    public static final String SERVER_NAME_ENV = "DEPLOYMENT_SERVERNAME";
+
+    /**
+     * System property with the timeout for the hostname lookup, in milliseconds.
+     */
+    public static final String TIMEOUT_PROPERTY = "deployment.servername.timeout";
+
+    private static final long DEFAULT_TIMEOUT = 5000L;
+
+    private static final File HOSTNAME_FILE = new File("/etc/hostname");
+
+    private static volatile boolean resolved;
+
+    private static String serverName;
+
+    /**
+     * Hostname lookup still running after a timeout, guarded by the class lock.
+     */
+    private static FutureTask<String> pendingLookup;
+
+    private ServerIdentity()
+    {
+        // don't instantiate
+    }
+
+    /**
+     * Returns the name of the current server.
+     * @return server name, all lowercase, without domain. <code>null</code> if it can't be determined.
+     */
+    public static String getServerName()
+    {
+        if (!resolved)
+        {
+            synchronized (ServerIdentity.class)
+            {
+                if (!resolved)
+                {
+                    String name = resolve();
+                    if (name == null)
+                    {
+                        return null;
+                    }
+                    serverName = name;
+                    resolved = true;
+                }
+            }
+        }
+        return serverName;
+    }
+
+    /**
+     * Normalizes a host name: lowercase, without domain.
+     * @param hostname host name
+     * @return normalized name, <code>null</code> if <code>hostname</code> is blank
+     */
+    public static String normalize(String hostname)
+    {
+        if (StringUtils.isBlank(hostname))
+        {
+            return null;
+        }
+        return StringUtils.substringBefore(StringUtils.lowerCase(StringUtils.trim(hostname)), ".");
+    }
+
+    private static String resolve()
+    {
+        String name = normalize(System.getProperty(SERVER_NAME_PROPERTY));
+        if (name == null)
+        {
+            name = normalize(System.getenv(SERVER_NAME_ENV));
+        }
+        if (name == null)
+        {
+            name = readHostnameFile();
+        }
+        if (name == null)
+        {
+            name = normalize(lookupHostName(NumberUtils.toLong(
+                System.getProperty(TIMEOUT_PROPERTY),
+                DEFAULT_TIMEOUT)));
+        }
+        return name;
+    }
+
+    private static String readHostnameFile()
+    {
+        if (!HOSTNAME_FILE.isFile())
+        {
+            return null;
+        }
+        try
+        {
+            List<String> lines = Files.readAllLines(HOSTNAME_FILE.toPath(), StandardCharsets.ISO_8859_1);
+            return lines.isEmpty() ? null : normalize(lines.get(0));
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the local host name on a daemon thread, so that a broken reverse DNS can't block the caller for more
+     * than the given timeout. A lookup started by a previous call is reused: if still running, this call doesn't wait
+     * for it.
+     * @param timeout timeout in milliseconds
+     * @return host name, <code>null</code> if not resolved within the timeout or if the lookup failed
+     */
+    private static String lookupHostName(long timeout)
+    {
+        FutureTask<String> lookup = pendingLookup;
+        long wait = 0;
+        if (lookup == null)
+        {
+            lookup = new FutureTask<>(() -> InetAddress.getLocalHost().getHostName());
+            Thread thread = new Thread(lookup, "servername-lookup");
+            thread.setDaemon(true);
+            thread.start();
+            pendingLookup = lookup;
+            wait = timeout;
+        }
+
+        try
+        {
+            String hostname = lookup.get(wait, TimeUnit.MILLISECONDS);
+            pendingLookup = null;
+            return hostname;
+        }
+        catch (TimeoutException e)
+        {
+            if (wait > 0)
+            {
+                System.err.println("Timeout resolving local host name after " + timeout + " ms, set the "
+                    + SERVER_NAME_PROPERTY
+                    + " system property to configure the server name");
+            }
+        }
+        catch (ExecutionException e)
+        {
+            // retried at the next call
+            pendingLookup = null;
+            System.err.println("Unable to resolve local host name: " + e.getCause().getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            // the lookup keeps running, its result is taken at the next call
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,489 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.log4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.AbstractConfiguration;
+import org.apache.logging.log4j.core.config.ConfigurationSource;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.util.PluginType;
+import org.apache.logging.log4j.core.config.plugins.util.ResolverUtil;
+import org.apache.logging.log4j.core.config.status.StatusConfiguration;
+import org.apache.logging.log4j.core.util.Patterns;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+
+/**
+ * A Log4j XML configuration built from a cached element tree, so that an unchanged <code>log4j2.xml</code> is not
+ * parsed again at each startup. The element tree is stored in a compact binary file, keyed by a hash of the XML
+ * content, the server name and the webapp. Nodes are then built exactly as in Log4j's
+ * <code>XmlConfiguration</code>, and variables are still replaced when the configuration starts.
+ * <p>
+ * Only the DOM parsing is saved: the XML file is still read and hashed at each startup to validate the cache, and
+ * plugins are created as usual.
+ * </p>
+ * <p>
+ * Configurations using features that depend on the XML file itself (<code>monitorInterval</code>,
+ * <code>advertiser</code>, <code>strict</code>, <code>schema</code> or XInclude) are not cached: {@link #load} returns
+ * <code>null</code> and the standard Log4j configuration factory must be used. The same happens with a Log4j version
+ * other than the one this class mirrors, see {@link #LOG4J_VERSION}.
+ * </p>
+ * @author fgiust
+ * @version $Id$
+ */
+public class CachedXmlConfiguration extends AbstractConfiguration
+{
+
+    private static final int MAGIC = 0x4F55444C;
+
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Log4j version whose <code>XmlConfiguration</code> is mirrored by this class.
+     */
+    public static final String LOG4J_VERSION = "2.11.1";
+
+    private static final String[] VERBOSE_CLASSES = new String[]{ResolverUtil.class.getName() };
+
+    /**
+     * Root attributes that require the standard configuration, lowercase since Log4j ignores their case.
+     */
+    private static final List<String> UNSUPPORTED_ATTRIBUTES = Arrays.asList(
+        "monitorinterval",
+        "advertiser",
+        "strict",
+        "schema");
+
+    private static final byte[] XINCLUDE_NAMESPACE = "http://www.w3.org/2001/XInclude"
+        .getBytes(StandardCharsets.ISO_8859_1);
+
+    private final Element rootElement;
+
+    private CachedXmlConfiguration(LoggerContext loggerContext, ConfigurationSource source, Element rootElement)
+    {
+        super(loggerContext, source);
+        this.rootElement = rootElement;
+
+        // same as XmlConfiguration, unsupported attributes have already been excluded
+        rootNode.getAttributes().putAll(rootElement.attributes);
+        StatusConfiguration statusConfig = new StatusConfiguration().withVerboseClasses(VERBOSE_CLASSES).withStatus(
+            getDefaultStatus());
+        for (Map.Entry<String, String> entry : rootElement.attributes.entrySet())
+        {
+            String key = entry.getKey();
+            String value = getStrSubstitutor().replace(entry.getValue());
+            if ("status".equalsIgnoreCase(key))
+            {
+                statusConfig.withStatus(value);
+            }
+            else if ("dest".equalsIgnoreCase(key))
+            {
+                statusConfig.withDestination(value);
+            }
+            else if ("shutdownHook".equalsIgnoreCase(key))
+            {
+                isShutdownHookEnabled = !"disable".equalsIgnoreCase(value);
+            }
+            else if ("shutdownTimeout".equalsIgnoreCase(key))
+            {
+                shutdownTimeoutMillis = Long.parseLong(value);
+            }
+            else if ("verbose".equalsIgnoreCase(key))
+            {
+                statusConfig.withVerbosity(value);
+            }
+            else if ("packages".equalsIgnoreCase(key))
+            {
+                pluginPackages.addAll(Arrays.asList(value.split(Patterns.COMMA_SEPARATOR)));
+            }
+            else if ("name".equalsIgnoreCase(key))
+            {
+                setName(value);
+            }
+        }
+        statusConfig.initialize();
+
+        if (getName() == null)
+        {
+            setName(source.getLocation());
+        }
+    }
+
+    /**
+     * Builds a configuration for an XML file, using the cached element tree if it matches the file content, server
+     * and webapp, or parsing the file and updating the cache.
+     * @param xmlFile log4j XML configuration file
+     * @param content content of <code>xmlFile</code>
+     * @param cacheFile cache file
+     * @param servername server name
+     * @param webapp webapp root path
+     * @return configuration, <code>null</code> if the file can't be cached or the running Log4j version is not
+     * {@link #LOG4J_VERSION}, and the standard configuration factory must be used
+     */
+    public static CachedXmlConfiguration load(File xmlFile, byte[] content, File cacheFile, String servername,
+        String webapp)
+    {
+        if (!isSupportedVersion())
+        {
+            String version = LoggerContext.class.getPackage().getImplementationVersion();
+            LOGGER.debug("Log4j {} differs from {}, the configuration will not be cached", version, LOG4J_VERSION);
+            return null;
+        }
+        if (!xmlFile.getName().endsWith(".xml") || indexOf(content, XINCLUDE_NAMESPACE) >= 0)
+        {
+            return null;
+        }
+
+        byte[] key = digest(content, servername, webapp);
+        Element root = read(cacheFile, key);
+        if (root == null)
+        {
+            try
+            {
+                root = parse(content, xmlFile);
+            }
+            catch (IOException | SAXException | ParserConfigurationException e)
+            {
+                LOGGER.error("Error parsing " + xmlFile, e);
+                return null;
+            }
+
+            for (String attribute : root.attributes.keySet())
+            {
+                if (UNSUPPORTED_ATTRIBUTES.contains(attribute.toLowerCase(Locale.ROOT)))
+                {
+                    return null;
+                }
+            }
+            write(cacheFile, key, root);
+        }
+
+        ConfigurationSource source = new ConfigurationSource(new ByteArrayInputStream(content), xmlFile);
+        return new CachedXmlConfiguration(null, source, root);
+    }
+
+    /**
+     * Checks that the running Log4j is the version this class has been written against: the way nodes are built
+     * from XML is not part of the Log4j API and may change in other versions.
+     * @return <code>true</code> if the running Log4j version is {@link #LOG4J_VERSION}
+     */
+    static boolean isSupportedVersion()
+    {
+        return LOG4J_VERSION.equals(LoggerContext.class.getPackage().getImplementationVersion());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setup()
+    {
+        construct(rootNode, rootElement);
+    }
+
+    private void construct(Node node, Element element)
+    {
+        node.getAttributes().putAll(element.attributes);
+        List<Node> children = node.getChildren();
+        for (Element child : element.children)
+        {
+            PluginType< ? > type = pluginManager.getPluginType(child.name);
+            Node childNode = new Node(node, child.name, type);
+            construct(childNode, child);
+            if (type == null)
+            {
+                String value = childNode.getValue();
+                if (!childNode.hasChildren() && value != null)
+                {
+                    node.getAttributes().put(child.name, value);
+                }
+                else
+                {
+                    LOGGER.error("Error processing element {} ({}): {}", child.name, element.name, "CLASS_NOT_FOUND");
+                }
+            }
+            else
+            {
+                children.add(childNode);
+            }
+        }
+
+        String text = element.text.trim();
+        if (text.length() > 0 || !node.hasChildren() && !node.isRoot())
+        {
+            node.setValue(text);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[location=" + getConfigurationSource() + "]";
+    }
+
+    private static Element parse(byte[] content, File xmlFile)
+        throws ParserConfigurationException, SAXException, IOException
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setValidating(false);
+        factory.setExpandEntityReferences(false);
+        setFeature(factory, "http://xml.org/sax/features/external-general-entities");
+        setFeature(factory, "http://xml.org/sax/features/external-parameter-entities");
+        setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd");
+        DocumentBuilder builder = factory.newDocumentBuilder();
+
+        InputSource source = new InputSource(new ByteArrayInputStream(content));
+        source.setSystemId(xmlFile.toURI().toString());
+        Document document = builder.parse(source);
+        return toElement(document.getDocumentElement());
+    }
+
+    private static void setFeature(DocumentBuilderFactory factory, String feature)
+    {
+        try
+        {
+            factory.setFeature(feature, false);
+        }
+        catch (ParserConfigurationException e)
+        {
+            LOGGER.debug("Unable to disable {} on {}", feature, factory);
+        }
+    }
+
+    private static Element toElement(org.w3c.dom.Element element)
+    {
+        Element result = new Element(element.getTagName());
+
+        NamedNodeMap attrs = element.getAttributes();
+        for (int i = 0; i < attrs.getLength(); ++i)
+        {
+            org.w3c.dom.Node w3cNode = attrs.item(i);
+            if (w3cNode instanceof Attr && !"xml:base".equals(((Attr) w3cNode).getName()))
+            {
+                result.attributes.put(((Attr) w3cNode).getName(), ((Attr) w3cNode).getValue());
+            }
+        }
+
+        StringBuilder text = new StringBuilder();
+        NodeList list = element.getChildNodes();
+        for (int i = 0; i < list.getLength(); i++)
+        {
+            org.w3c.dom.Node w3cNode = list.item(i);
+            if (w3cNode instanceof org.w3c.dom.Element)
+            {
+                result.children.add(toElement((org.w3c.dom.Element) w3cNode));
+            }
+            else if (w3cNode instanceof Text)
+            {
+                text.append(((Text) w3cNode).getData());
+            }
+        }
+        result.text = text.toString();
+        return result;
+    }
+
+    private static byte[] digest(byte[] content, String servername, String webapp)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content);
+            digest.update(("\n" + servername + "\n" + webapp).getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // SHA-256 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Element read(File cacheFile, byte[] key)
+    {
+        if (!cacheFile.isFile())
+        {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile
+            .toPath()))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+            {
+                return null;
+            }
+            byte[] stored = new byte[key.length];
+            in.readFully(stored);
+            if (!MessageDigest.isEqual(stored, key))
+            {
+                return null;
+            }
+            return readElement(in);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            LOGGER.debug("Unable to read cached log4j configuration {}: {}", cacheFile, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void write(File cacheFile, byte[] key, Element root)
+    {
+        File dir = cacheFile.getAbsoluteFile().getParentFile();
+        File temp = null;
+        try
+        {
+            temp = File.createTempFile(cacheFile.getName(), ".tmp", dir);
+            try (OutputStream os = Files.newOutputStream(temp.toPath());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os)))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.write(key);
+                writeElement(out, root);
+            }
+            Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Unable to write cached log4j configuration {}: {}", cacheFile, e.getMessage());
+            if (temp != null)
+            {
+                temp.delete();
+            }
+        }
+    }
+
+    private static Element readElement(DataInputStream in) throws IOException
+    {
+        Element element = new Element(readString(in));
+        element.text = readString(in);
+        int attributes = in.readInt();
+        for (int j = 0; j < attributes; j++)
+        {
+            element.attributes.put(readString(in), readString(in));
+        }
+        int children = in.readInt();
+        for (int j = 0; j < children; j++)
+        {
+            element.children.add(readElement(in));
+        }
+        return element;
+    }
+
+    private static void writeElement(DataOutputStream out, Element element) throws IOException
+    {
+        writeString(out, element.name);
+        writeString(out, element.text);
+        out.writeInt(element.attributes.size());
+        for (Map.Entry<String, String> entry : element.attributes.entrySet())
+        {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        out.writeInt(element.children.size());
+        for (Element child : element.children)
+        {
+            writeElement(out, child);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        // not writeUTF, which is limited to 64k (e.g. scripts)
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int indexOf(byte[] content, byte[] pattern)
+    {
+        outer : for (int i = 0; i <= content.length - pattern.length; i++)
+        {
+            for (int j = 0; j < pattern.length; j++)
+            {
+                if (content[i + j] != pattern[j])
+                {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * An XML element: name, attributes, text and child elements.
+     */
+    private static final class Element
+    {
+
+        final String name;
+
+        final Map<String, String> attributes = new LinkedHashMap<>();
+
+        final List<Element> children = new ArrayList<>();
+
+        String text = "";
+
+        Element(String name)
+        {
+            this.name = name;
+        }
+    }
+}
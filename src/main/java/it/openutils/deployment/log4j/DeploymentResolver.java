@@ -19,10 +19,11 @@ package it.openutils.deployment.log4j;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.text.MessageFormat;
 
+import it.openutils.deployment.ConfigTreeIndex;
+import it.openutils.deployment.ServerIdentity;
+
 import javax.servlet.ServletContext;
 
 import org.apache.commons.lang3.ArrayUtils;
@@ -55,6 +56,9 @@ public class DeploymentResolver
 
         log.info("Resolving log configuration using servername={} and webapp={}", servername, webapp);
 
+        // a single walk of WEB-INF/config instead of probing each candidate
+        ConfigTreeIndex index = ConfigTreeIndex.get(context);
+
         for (int j = 0; j < propertiesLocation.length; j++)
         {
             String location = StringUtils.trim(propertiesLocation[j]);
@@ -63,7 +67,17 @@ public class DeploymentResolver
 
             File initFile = new File(rootPath, location);
 
-            if (!initFile.exists() || initFile.isDirectory())
+            boolean found;
+            if (index != null && index.covers(location))
+            {
+                found = index.isFile(location);
+            }
+            else
+            {
+                found = initFile.exists() && !initFile.isDirectory();
+            }
+
+            if (!found)
             {
                 log.debug("Log4j config not found at {}", initFile.getAbsolutePath());
                 continue;
@@ -89,24 +103,10 @@ public class DeploymentResolver
     /**
      * Resolve the current server name.
      * @return server name, all lowercase, without domain
+     * @see ServerIdentity#getServerName()
      */
     public static String resolveServerName()
     {
-        String servername = null;
-
-        try
-        {
-            servername = StringUtils.lowerCase(InetAddress.getLocalHost().getHostName());
-            if (StringUtils.contains(servername, "."))
-            {
-                servername = StringUtils.substringBefore(servername, ".");
-            }
-
-        }
-        catch (UnknownHostException e)
-        {
-            System.err.println(e.getMessage());
-        }
-        return servername;
+        return ServerIdentity.getServerName();
     }
 }
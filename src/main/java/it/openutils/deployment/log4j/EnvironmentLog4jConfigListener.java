@@ -23,11 +23,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.openutils.deployment.ServerIdentity;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.core.LoggerContext;
 import org.apache.logging.log4j.core.config.Configuration;
@@ -53,6 +58,17 @@ public class EnvironmentLog4jConfigListener implements ServletContextListener
             + "WEB-INF/config/default/log4j2.xml," //$NON-NLS-1$
             + "WEB-INF/config/log4j2.xml"; //$NON-NLS-1$
 
+    /**
+     * Log4j context selector that makes all loggers asynchronous.
+     */
+    private static final String ASYNC_SELECTOR = //
+        "org.apache.logging.log4j.core.async.AsyncLoggerContextSelector"; //$NON-NLS-1$
+
+    /**
+     * Class from the LMAX disruptor, required by async loggers.
+     */
+    private static final String DISRUPTOR_CLASS = "com.lmax.disruptor.RingBuffer"; //$NON-NLS-1$
+
     /**
      * {@inheritDoc}
      */
@@ -68,13 +84,27 @@ public class EnvironmentLog4jConfigListener implements ServletContextListener
     }
 
     public static void initLogging(ServletContext servletContext)
+    {
+        // before loading any class with a logger, the context selector is chosen when log4j is first used
+        String servername = ServerIdentity.getServerName();
+        List<String> loggingProperties = configureLoggingMode(servletContext, servername);
+        try
+        {
+            configureLogging(servletContext, servername);
+        }
+        finally
+        {
+            restoreLoggingProperties(servletContext, loggingProperties);
+        }
+    }
+
+    private static void configureLogging(ServletContext servletContext, String servername)
     {
         if (exposeWebAppRoot(servletContext))
         {
             WebUtils.setWebAppRootSystemProperty(servletContext);
         }
 
-        String servername = DeploymentResolver.resolveServerName();
         if (servername != null)
         {
             System.setProperty("server.name", servername);
@@ -101,13 +131,28 @@ public class EnvironmentLog4jConfigListener implements ServletContextListener
         if (location != null)
         {
             servletContext.log("Initializing Log4J from [" + location + "]");
-            try (InputStream log4jConfigStream = Files.newInputStream(location.toPath(), StandardOpenOption.READ))
+            File cacheFile = getConfigCacheFile(servletContext);
+            try
             {
-
-                ConfigurationSource source = location.exists()
-                    ? new ConfigurationSource(log4jConfigStream, location)
-                    : new ConfigurationSource(log4jConfigStream); // @patch
-                Configuration configuration = ConfigurationFactory.getInstance().getConfiguration(null, source);
+                Configuration configuration = null;
+                if (cacheFile != null)
+                {
+                    byte[] content = Files.readAllBytes(location.toPath());
+                    configuration = CachedXmlConfiguration.load(
+                        location,
+                        content,
+                        cacheFile,
+                        servername,
+                        servletContext.getRealPath("/"));
+                    if (configuration == null)
+                    {
+                        servletContext.log("Log4J configuration [" + location + "] can't be cached");
+                    }
+                }
+                if (configuration == null)
+                {
+                    configuration = parseConfiguration(location);
+                }
                 ((LoggerContext) LogManager.getContext(false)).start(configuration);
             }
             catch (IOException ex)
@@ -117,6 +162,194 @@ public class EnvironmentLog4jConfigListener implements ServletContextListener
         }
     }
 
+    /**
+     * Sets the Log4j system properties for async loggers and garbage-free logging, from context parameters. Each
+     * parameter can be set for a single server by adding <code>.servername</code> to its name, e.g.
+     * <code>log4jAsync.prod01</code>. Parameters:
+     * <ul>
+     * <li><code>log4jAsync</code>: <code>true</code> to make all loggers asynchronous, requires the LMAX
+     * disruptor</li>
+     * <li><code>log4jRingBufferSize</code>: size of the async logger ring buffer</li>
+     * <li><code>log4jWaitStrategy</code>: async logger wait strategy (Block, Timeout, Sleep, Yield, Busyspin)</li>
+     * <li><code>log4jGarbageFree</code>: <code>true</code> to enable thread locals, direct encoders and the
+     * garbage-free thread context map, <code>false</code> to disable them</li>
+     * </ul>
+     * The properties must be set before the first {@link LoggerContext} is created, so they have no effect if Log4j
+     * has already been initialized. System properties set on the command line or by another webapp always win: a
+     * different value is reported as a warning and ignored. When Log4j is loaded by the webapp class loader the
+     * properties are removed as soon as it has been initialized (see
+     * {@link #restoreLoggingProperties(ServletContext, List)}), so that they don't leak into other webapps.
+     * @param servletContext servlet context
+     * @param servername server name, may be null
+     * @return names of the system properties set
+     */
+    private static List<String> configureLoggingMode(ServletContext servletContext, String servername)
+    {
+        List<String> properties = new ArrayList<>();
+        String async = getServerInitParameter(servletContext, "log4jAsync", servername);
+        if (async != null)
+        {
+            if (!Boolean.parseBoolean(async))
+            {
+                if (ASYNC_SELECTOR.equals(System.getProperty("Log4jContextSelector")))
+                {
+                    servletContext.log("Async loggers disabled by 'log4jAsync' but selected with a system property");
+                }
+            }
+            else if (!isClassAvailable(DISRUPTOR_CLASS))
+            {
+                servletContext.log("Async loggers requested but the LMAX disruptor is not available, using "
+                    + "synchronous loggers");
+            }
+            else
+            {
+                setDefaultProperty(servletContext, properties, "Log4jContextSelector", ASYNC_SELECTOR);
+                setDefaultProperty(
+                    servletContext,
+                    properties,
+                    "AsyncLogger.RingBufferSize",
+                    getServerInitParameter(servletContext, "log4jRingBufferSize", servername));
+                setDefaultProperty(
+                    servletContext,
+                    properties,
+                    "AsyncLogger.WaitStrategy",
+                    getServerInitParameter(servletContext, "log4jWaitStrategy", servername));
+            }
+        }
+
+        String garbageFree = getServerInitParameter(servletContext, "log4jGarbageFree", servername);
+        if (garbageFree != null)
+        {
+            String enabled = Boolean.toString(Boolean.parseBoolean(garbageFree));
+            setDefaultProperty(servletContext, properties, "log4j2.enable.threadlocals", enabled);
+            setDefaultProperty(servletContext, properties, "log4j2.enable.direct.encoders", enabled);
+            setDefaultProperty(servletContext, properties, "log4j2.garbagefreeThreadContextMap", enabled);
+        }
+        return properties;
+    }
+
+    /**
+     * Removes the system properties set by {@link #configureLoggingMode(ServletContext, String)}. Log4j reads them
+     * once, when its first {@link LoggerContext} is created, so they are only needed during initialization. If Log4j
+     * is shared by the container they are left in place, since they apply to every webapp anyway.
+     * @param servletContext servlet context
+     * @param properties names of the system properties set
+     */
+    private static void restoreLoggingProperties(ServletContext servletContext, List<String> properties)
+    {
+        if (properties.isEmpty())
+        {
+            return;
+        }
+        if (LogManager.class.getClassLoader() != Thread.currentThread().getContextClassLoader())
+        {
+            servletContext.log("WARNING: Log4J is shared with other webapps, properties "
+                + properties
+                + " apply to all of them");
+            return;
+        }
+
+        // make sure the properties have been read
+        LogManager.getContext(false);
+        for (String key : properties)
+        {
+            System.clearProperty(key);
+        }
+    }
+
+    private static String getServerInitParameter(ServletContext servletContext, String name, String servername)
+    {
+        String value = null;
+        if (servername != null)
+        {
+            value = StringUtils.trimToNull(servletContext.getInitParameter(name + "." + servername));
+        }
+        if (value == null)
+        {
+            value = StringUtils.trimToNull(servletContext.getInitParameter(name));
+        }
+        return value;
+    }
+
+    private static void setDefaultProperty(ServletContext servletContext, List<String> properties, String key,
+        String value)
+    {
+        if (value == null)
+        {
+            return;
+        }
+        String current = System.getProperty(key);
+        if (current != null)
+        {
+            if (!current.equals(value))
+            {
+                servletContext.log("WARNING: Log4J property "
+                    + key
+                    + " is already set to ["
+                    + current
+                    + "] by the JVM or another webapp, ignoring ["
+                    + value
+                    + "]");
+            }
+            return;
+        }
+        servletContext.log("Setting Log4J property " + key + " to [" + value + "]");
+        System.setProperty(key, value);
+        properties.add(key);
+    }
+
+    private static boolean isClassAvailable(String className)
+    {
+        try
+        {
+            Class.forName(className, false, EnvironmentLog4jConfigListener.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    private static Configuration parseConfiguration(File location) throws IOException
+    {
+        try (InputStream log4jConfigStream = Files.newInputStream(location.toPath(), StandardOpenOption.READ))
+        {
+
+            ConfigurationSource source = location.exists()
+                ? new ConfigurationSource(log4jConfigStream, location)
+                : new ConfigurationSource(log4jConfigStream); // @patch
+            return ConfigurationFactory.getInstance().getConfiguration(null, source);
+        }
+    }
+
+    /**
+     * Returns the file used to cache the parsed configuration, from the <code>log4jConfigCache</code> context
+     * parameter: <code>true</code> for a file in the servlet container temporary directory, or the path of the cache
+     * file. Cache is disabled by default.
+     * @param servletContext servlet context
+     * @return cache file, <code>null</code> if disabled
+     */
+    private static File getConfigCacheFile(ServletContext servletContext)
+    {
+        String cacheParam = StringUtils.trimToNull(servletContext.getInitParameter("log4jConfigCache"));
+        if (cacheParam == null || "false".equalsIgnoreCase(cacheParam))
+        {
+            return null;
+        }
+        if ("true".equalsIgnoreCase(cacheParam))
+        {
+            Object tempdir = servletContext.getAttribute(WebUtils.TEMP_DIR_CONTEXT_ATTRIBUTE);
+            if (!(tempdir instanceof File))
+            {
+                servletContext.log("No temporary directory available, Log4J configuration will not be cached");
+                return null;
+            }
+            return new File((File) tempdir, "log4j2-config.cache");
+        }
+        return new File(cacheParam);
+    }
+
     private static boolean exposeWebAppRoot(ServletContext servletContext)
     {
         String exposeWebAppRootParam = servletContext.getInitParameter("log4jExposeWebAppRoot");
@@ -0,0 +1,300 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.log4j;
+
+import it.openutils.deployment.spring.EnvironmentPropertyConfigurer;
+import it.openutils.deployment.spring.PropertiesChangeListener;
+import it.openutils.deployment.spring.PropertiesChangedEvent;
+import it.openutils.deployment.spring.PropertyStore;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+
+/**
+ * Applies logger levels from the properties of an {@link EnvironmentPropertyConfigurer} (or a
+ * {@link it.openutils.deployment.spring.DatabaseEnvironmentPropertyConfigurer}) to the running Log4j configuration.
+ * Levels are defined by keys starting with a prefix, <code>log4j.level.</code> by default, e.g.
+ * <code>log4j.level.org.hibernate.SQL=DEBUG</code>. Use <code>log4j.level.root</code> for the root logger.
+ * <p>
+ * Levels are changed directly on the {@link LoggerConfig}s of the current configuration, and loggers are updated once
+ * for each batch of changes: the configuration is not rebuilt and appenders are not restarted. Overrides follow
+ * reloads and refreshes of the configurer, and a removed key restores the level from the Log4j configuration. If
+ * Log4j is reconfigured, the overrides are applied again to the new configuration.
+ * </p>
+ * <pre>
+ * &lt;bean class="it.openutils.deployment.log4j.LogLevelOverrides">
+ *   &lt;property name="configurer" ref="environmentProperties" />
+ * &lt;/bean>
+ * </pre>
+ * @author fgiust
+ * @version $Id$
+ */
+public class LogLevelOverrides implements InitializingBean, DisposableBean, PropertiesChangeListener
+{
+
+    /**
+     * Name used for the root logger in keys.
+     */
+    public static final String ROOT = "root";
+
+    private static Logger log = LoggerFactory.getLogger(LogLevelOverrides.class);
+
+    private EnvironmentPropertyConfigurer configurer;
+
+    private String prefix = "log4j.level.";
+
+    /**
+     * Levels from the Log4j configuration for the loggers we changed, to restore them.
+     */
+    private final Map<String, Level> originalLevels = new HashMap<>();
+
+    /**
+     * Loggers that were not in the Log4j configuration and have been added.
+     */
+    private final Set<String> addedLoggers = new HashSet<>();
+
+    private LoggerContext loggerContext;
+
+    private final PropertyChangeListener reconfigurationListener = this::configurationChanged;
+
+    /**
+     * Sets the configurer the levels are read from.
+     * @param configurer configurer
+     */
+    public void setConfigurer(EnvironmentPropertyConfigurer configurer)
+    {
+        this.configurer = configurer;
+    }
+
+    /**
+     * Sets the prefix of the keys defining levels. Defaults to <code>log4j.level.</code>.
+     * @param prefix key prefix
+     */
+    public void setPrefix(String prefix)
+    {
+        this.prefix = prefix;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterPropertiesSet()
+    {
+        if (!(LogManager.getContext(false) instanceof LoggerContext))
+        {
+            log.warn("Log4j core is not the active logging implementation, log level overrides will be ignored");
+            return;
+        }
+        loggerContext = (LoggerContext) LogManager.getContext(false);
+        loggerContext.addPropertyChangeListener(reconfigurationListener);
+
+        if (configurer != null)
+        {
+            configurer.addChangeListener(prefix + "*", this);
+            apply(currentLevels());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy()
+    {
+        if (configurer != null)
+        {
+            configurer.removeChangeListener(this);
+        }
+        if (loggerContext != null)
+        {
+            loggerContext.removePropertyChangeListener(reconfigurationListener);
+            restoreAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void propertiesChanged(PropertiesChangedEvent event)
+    {
+        Map<String, String> levels = new LinkedHashMap<>();
+        for (String key : event.getChangedKeys())
+        {
+            levels.put(key.substring(prefix.length()), event.getValue(key));
+        }
+        apply(levels);
+    }
+
+    /**
+     * Applies level overrides to the running configuration, then updates loggers once.
+     * @param levels levels by logger name (or {@link #ROOT}), a <code>null</code> level restores the level from the
+     * Log4j configuration
+     */
+    public synchronized void apply(Map<String, String> levels)
+    {
+        if (loggerContext == null || levels.isEmpty())
+        {
+            return;
+        }
+        Configuration configuration = loggerContext.getConfiguration();
+        List<LoggerConfig> removed = new ArrayList<>();
+        boolean changed = false;
+        for (Map.Entry<String, String> entry : levels.entrySet())
+        {
+            String name = ROOT.equals(entry.getKey()) ? LogManager.ROOT_LOGGER_NAME : entry.getKey();
+            String value = StringUtils.trimToNull(entry.getValue());
+            if (value == null)
+            {
+                changed |= restore(configuration, name, removed);
+                continue;
+            }
+            Level level = Level.toLevel(value, null);
+            if (level == null)
+            {
+                log.warn("Invalid level {} for logger {}, ignored", value, entry.getKey());
+                continue;
+            }
+            changed |= override(configuration, name, level);
+        }
+        if (changed)
+        {
+            loggerContext.updateLoggers();
+        }
+        // once no logger uses them anymore
+        for (LoggerConfig loggerConfig : removed)
+        {
+            loggerConfig.stop();
+        }
+    }
+
+    private boolean override(Configuration configuration, String name, Level level)
+    {
+        LoggerConfig loggerConfig = configuration.getLoggerConfig(name);
+        if (!loggerConfig.getName().equals(name))
+        {
+            // inherits from a parent, add a logger with the same appenders, started as configured loggers are
+            LoggerConfig added = new LoggerConfig(name, level, true);
+            added.start();
+            configuration.addLogger(name, added);
+            addedLoggers.add(name);
+            log.info("Logger {} set to {}", StringUtils.defaultIfEmpty(name, ROOT), level);
+            return true;
+        }
+        if (loggerConfig.getLevel() == level)
+        {
+            return false;
+        }
+        if (!addedLoggers.contains(name) && !originalLevels.containsKey(name))
+        {
+            originalLevels.put(name, loggerConfig.getLevel());
+        }
+        loggerConfig.setLevel(level);
+        log.info("Logger {} set to {}", StringUtils.defaultIfEmpty(name, ROOT), level);
+        return true;
+    }
+
+    private boolean restore(Configuration configuration, String name, List<LoggerConfig> removed)
+    {
+        if (addedLoggers.remove(name))
+        {
+            LoggerConfig added = configuration.getLoggers().get(name);
+            if (added != null)
+            {
+                removed.add(added);
+            }
+            configuration.removeLogger(name);
+            log.info("Logger {} restored", StringUtils.defaultIfEmpty(name, ROOT));
+            return true;
+        }
+        if (originalLevels.containsKey(name))
+        {
+            configuration.getLoggerConfig(name).setLevel(originalLevels.remove(name));
+            log.info("Logger {} restored", StringUtils.defaultIfEmpty(name, ROOT));
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void restoreAll()
+    {
+        Map<String, String> levels = new HashMap<>();
+        for (String name : addedLoggers)
+        {
+            levels.put(name, null);
+        }
+        for (String name : originalLevels.keySet())
+        {
+            levels.put(name, null);
+        }
+        apply(levels);
+    }
+
+    private Map<String, String> currentLevels()
+    {
+        final Map<String, String> levels = new LinkedHashMap<>();
+        PropertyStore store = configurer.getPropertyStore();
+        if (store != null)
+        {
+            store.forEach((key, value) -> {
+                if (key.startsWith(prefix))
+                {
+                    levels.put(key.substring(prefix.length()), value);
+                }
+            });
+        }
+        return levels;
+    }
+
+    private synchronized void configurationChanged(PropertyChangeEvent event)
+    {
+        // also fired by updateLoggers(), with the same configuration
+        if (!LoggerContext.PROPERTY_CONFIG.equals(event.getPropertyName())
+            || event.getOldValue() == event.getNewValue())
+        {
+            return;
+        }
+        // the new configuration has its own levels, apply the overrides again
+        originalLevels.clear();
+        addedLoggers.clear();
+        if (configurer != null)
+        {
+            apply(currentLevels());
+        }
+    }
+}
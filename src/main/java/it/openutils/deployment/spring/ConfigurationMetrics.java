@@ -0,0 +1,91 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+/**
+ * Callback notified with timings and counters while a configurer resolves its configuration. Implementations are
+ * called synchronously on the thread doing the work, so they must be fast and thread safe. See
+ * {@link ConfigurationStats} for an implementation that publishes the last values through JMX.
+ * @author fgiust
+ * @version $Id$
+ */
+public interface ConfigurationMetrics
+{
+
+    /**
+     * Resolution of the server name.
+     */
+    String PHASE_SERVER_NAME = "serverName";
+
+    /**
+     * Loading of all the candidate locations.
+     */
+    String PHASE_LOAD = "load";
+
+    /**
+     * Loading of a configuration snapshot.
+     */
+    String PHASE_SNAPSHOT = "snapshot";
+
+    /**
+     * Resolution of the placeholders in the merged properties, when enabled.
+     */
+    String PHASE_PLACEHOLDERS = "placeholders";
+
+    /**
+     * Whole resolution, from server name to published properties.
+     */
+    String PHASE_TOTAL = "total";
+
+    /**
+     * A resolution phase has completed.
+     * @param configurer name of the configurer bean
+     * @param phase phase name, see the <code>PHASE_*</code> constants
+     * @param nanos duration in nanoseconds
+     */
+    void phaseCompleted(String configurer, String phase, long nanos);
+
+    /**
+     * A candidate location has been probed and, if found, loaded.
+     * @param configurer name of the configurer bean
+     * @param location resolved location
+     * @param found <code>true</code> if the resource exists
+     * @param nanos time spent probing and loading, in nanoseconds
+     * @param bytes bytes read
+     * @param keys number of keys loaded
+     */
+    void locationLoaded(String configurer, String location, boolean found, long nanos, long bytes, int keys);
+
+    /**
+     * A database refresh has completed.
+     * @param configurer name of the configurer bean
+     * @param nanos duration of the query, in nanoseconds
+     * @param rows number of rows loaded
+     * @param success <code>false</code> if the query failed
+     */
+    void databaseRefreshed(String configurer, long nanos, int rows, boolean success);
+
+    /**
+     * A database probe query has completed.
+     * @param configurer name of the configurer bean
+     * @param nanos duration of the probe query, in nanoseconds
+     * @param changed <code>true</code> if the probed value changed and the rows are going to be reloaded
+     * @param success <code>false</code> if the query failed
+     */
+    void databaseProbed(String configurer, long nanos, boolean changed, boolean success);
+}
@@ -0,0 +1,187 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Compact binary snapshot of a resolved configuration, stored on disk together with a fingerprint of the sources it
+ * has been built from. A snapshot is only returned when its fingerprint matches the expected one, so callers can
+ * safely fall back to a full resolution when anything has changed.
+ * <p>
+ * File layout: magic number, format version, SHA-256 of the fingerprint, number of entries, then a length-prefixed
+ * UTF-8 key and value for each entry. Snapshot files are read in memory rather than memory-mapped: on Windows a mapped
+ * file stays locked until garbage collected, and the next {@link #write(File, String, Map)} couldn't replace it.
+ * </p>
+ * @author fgiust
+ * @version $Id$
+ */
+public final class ConfigurationSnapshot
+{
+
+    private static final int MAGIC = 0x4F554453;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int DIGEST_LENGTH = 32;
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(ConfigurationSnapshot.class);
+
+    private ConfigurationSnapshot()
+    {
+        // don't instantiate
+    }
+
+    /**
+     * Reads a snapshot.
+     * @param file snapshot file
+     * @param fingerprint expected fingerprint
+     * @return snapshot properties, <code>null</code> if the file doesn't exist, is invalid or its fingerprint doesn't
+     * match
+     */
+    public static Properties read(File file, String fingerprint)
+    {
+        if (!file.isFile())
+        {
+            return null;
+        }
+
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+            {
+                log.warn("Ignoring invalid configuration snapshot {}", file);
+                return null;
+            }
+
+            byte[] digest = new byte[DIGEST_LENGTH];
+            buffer.get(digest);
+            if (!Arrays.equals(digest, digest(fingerprint)))
+            {
+                log.debug("Configuration snapshot {} is out of date", file);
+                return null;
+            }
+
+            int count = buffer.getInt();
+            Properties properties = new Properties();
+            for (int j = 0; j < count; j++)
+            {
+                String key = readString(buffer);
+                properties.put(key, readString(buffer));
+            }
+            return properties;
+        }
+        catch (IOException | BufferUnderflowException | IllegalArgumentException e)
+        {
+            log.warn("Unable to read configuration snapshot {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot. The file is written to a temporary file and then moved in place, so that concurrent readers
+     * never see a partial snapshot. Errors are logged and otherwise ignored, the temporary file is deleted.
+     * @param file snapshot file
+     * @param fingerprint fingerprint of the sources
+     * @param properties properties to store
+     */
+    public static void write(File file, String fingerprint, Map<?, ?> properties)
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = null;
+        try
+        {
+            Files.createDirectories(dir.toPath());
+            tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp
+                .toPath()))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.write(digest(fingerprint));
+                out.writeInt(properties.size());
+                for (Map.Entry<?, ?> entry : properties.entrySet())
+                {
+                    writeString(out, String.valueOf(entry.getKey()));
+                    writeString(out, String.valueOf(entry.getValue()));
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log.debug("Configuration snapshot written to {}", file);
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to write configuration snapshot {}: {}", file, e.getMessage());
+            if (tmp != null)
+            {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] digest(String fingerprint)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256").digest(fingerprint.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // SHA-256 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * {@link ConfigurationMetrics} implementation that keeps the last values and some counters, exposed through JMX by
+ * {@link ConfigurationStatsMBean}. Can optionally forward all the notifications to another callback.
+ * @author fgiust
+ * @version $Id$
+ */
+public class ConfigurationStats implements ConfigurationMetrics, ConfigurationStatsMBean
+{
+
+    private static final double NANOS_PER_MILLI = 1000000d;
+
+    private final ConfigurationMetrics delegate;
+
+    private final ConcurrentMap<String, Long> phases = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, String> locations = new ConcurrentHashMap<>();
+
+    private final AtomicLong resolutions = new AtomicLong();
+
+    private final AtomicLong refreshes = new AtomicLong();
+
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    private volatile long lastRefreshNanos;
+
+    private volatile int lastRowCount;
+
+    private final AtomicLong probes = new AtomicLong();
+
+    private final AtomicLong probeSkips = new AtomicLong();
+
+    private final AtomicLong probeHits = new AtomicLong();
+
+    private volatile long lastProbeNanos;
+
+    public ConfigurationStats()
+    {
+        this(null);
+    }
+
+    /**
+     * @param delegate callback notified after this one, may be <code>null</code>
+     */
+    public ConfigurationStats(ConfigurationMetrics delegate)
+    {
+        this.delegate = delegate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void phaseCompleted(String configurer, String phase, long nanos)
+    {
+        if (PHASE_TOTAL.equals(phase))
+        {
+            resolutions.incrementAndGet();
+        }
+        phases.put(phase, nanos);
+
+        if (delegate != null)
+        {
+            delegate.phaseCompleted(configurer, phase, nanos);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void locationLoaded(String configurer, String location, boolean found, long nanos, long bytes, int keys)
+    {
+        locations.put(location, found
+            ? String.format("%s: hit, %.3f ms, %d bytes, %d keys", location, nanos / NANOS_PER_MILLI, bytes, keys)
+            : String.format("%s: miss, %.3f ms", location, nanos / NANOS_PER_MILLI));
+
+        if (delegate != null)
+        {
+            delegate.locationLoaded(configurer, location, found, nanos, bytes, keys);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void databaseRefreshed(String configurer, long nanos, int rows, boolean success)
+    {
+        refreshes.incrementAndGet();
+        if (success)
+        {
+            lastRefreshNanos = nanos;
+            lastRowCount = rows;
+        }
+        else
+        {
+            refreshFailures.incrementAndGet();
+        }
+
+        if (delegate != null)
+        {
+            delegate.databaseRefreshed(configurer, nanos, rows, success);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void databaseProbed(String configurer, long nanos, boolean changed, boolean success)
+    {
+        probes.incrementAndGet();
+        if (success)
+        {
+            lastProbeNanos = nanos;
+            if (changed)
+            {
+                probeHits.incrementAndGet();
+            }
+            else
+            {
+                probeSkips.incrementAndGet();
+            }
+        }
+
+        if (delegate != null)
+        {
+            delegate.databaseProbed(configurer, nanos, changed, success);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getPhaseTimings()
+    {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : phases.entrySet())
+        {
+            result.add(String.format("%s: %.3f", entry.getKey(), entry.getValue() / NANOS_PER_MILLI));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getLocations()
+    {
+        return locations.values().toArray(new String[0]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getResolutionCount()
+    {
+        return resolutions.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getLastResolutionMillis()
+    {
+        Long nanos = phases.get(PHASE_TOTAL);
+        return nanos != null ? nanos / NANOS_PER_MILLI : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getLastDatabaseRefreshMillis()
+    {
+        return lastRefreshNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getLastDatabaseRowCount()
+    {
+        return lastRowCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDatabaseRefreshCount()
+    {
+        return refreshes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDatabaseRefreshFailures()
+    {
+        return refreshFailures.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getLastDatabaseProbeMillis()
+    {
+        return lastProbeNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDatabaseProbeCount()
+    {
+        return probes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDatabaseProbeSkips()
+    {
+        return probeSkips.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getDatabaseProbeHits()
+    {
+        return probeHits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset()
+    {
+        phases.clear();
+        locations.clear();
+        resolutions.set(0);
+        refreshes.set(0);
+        refreshFailures.set(0);
+        lastRefreshNanos = 0;
+        lastRowCount = 0;
+        probes.set(0);
+        probeSkips.set(0);
+        probeHits.set(0);
+        lastProbeNanos = 0;
+    }
+}
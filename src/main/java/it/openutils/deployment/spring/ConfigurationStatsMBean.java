@@ -0,0 +1,92 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+/**
+ * JMX interface of {@link ConfigurationStats}. Times are in milliseconds.
+ * @author fgiust
+ * @version $Id$
+ */
+public interface ConfigurationStatsMBean
+{
+
+    /**
+     * @return duration of each phase of the last resolution, as <code>phase: millis</code>
+     */
+    String[] getPhaseTimings();
+
+    /**
+     * @return each candidate location of the last resolution, with hit/miss, time, bytes and keys
+     */
+    String[] getLocations();
+
+    /**
+     * @return number of resolutions (startup and reloads)
+     */
+    long getResolutionCount();
+
+    /**
+     * @return duration of the last resolution
+     */
+    double getLastResolutionMillis();
+
+    /**
+     * @return duration of the last database query
+     */
+    double getLastDatabaseRefreshMillis();
+
+    /**
+     * @return number of rows loaded by the last database query
+     */
+    int getLastDatabaseRowCount();
+
+    /**
+     * @return number of database refreshes
+     */
+    long getDatabaseRefreshCount();
+
+    /**
+     * @return number of failed database refreshes
+     */
+    long getDatabaseRefreshFailures();
+
+    /**
+     * @return duration of the last database probe query
+     */
+    double getLastDatabaseProbeMillis();
+
+    /**
+     * @return number of database probes
+     */
+    long getDatabaseProbeCount();
+
+    /**
+     * @return number of database probes that found no change, skipping the reload
+     */
+    long getDatabaseProbeSkips();
+
+    /**
+     * @return number of database probes that found a change
+     */
+    long getDatabaseProbeHits();
+
+    /**
+     * Resets all the counters.
+     */
+    void reset();
+}
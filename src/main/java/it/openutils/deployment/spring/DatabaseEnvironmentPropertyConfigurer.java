@@ -17,13 +17,29 @@
  */
 package it.openutils.deployment.spring;
 
+import java.io.File;
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.sql.DataSource;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -31,11 +47,16 @@ import org.springframework.beans.factory.BeanInitializationException;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
-import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ApplicationContextEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 
 /**
@@ -45,22 +66,123 @@ import org.springframework.jdbc.core.RowCallbackHandler;
 public class DatabaseEnvironmentPropertyConfigurer extends EnvironmentPropertyConfigurer
     implements
     ApplicationContextAware,
-    ApplicationListener
+    ApplicationListener<ApplicationContextEvent>
 {
 
     private static Logger log = LoggerFactory.getLogger(DatabaseEnvironmentPropertyConfigurer.class);
 
+    /**
+     * Fetch size used when streaming results, if not set.
+     */
+    private static final int DEFAULT_STREAMING_FETCH_SIZE = 500;
+
     private String sqlQuery;
 
+    private volatile LocationTemplate sqlTemplate;
+
+    private volatile LocationTemplate deltaTemplate;
+
+    private String probeQuery;
+
+    private volatile LocationTemplate probeTemplate;
+
+    /**
+     * Result of the probe query at the last successful refresh.
+     */
+    private List<String> lastProbe;
+
     private String dataSourceName;
 
     private DataSource dataSource;
 
     private ApplicationContext applicationContext;
 
+    /**
+     * Rows loaded by the last successful refresh, replaced as a whole.
+     */
+    private volatile PropertyStore databaseProperties = PropertyStore.EMPTY;
+
+    /**
+     * File properties last published by the base class, database rows are layered on top of them without copying.
+     */
+    private volatile PropertyStore fileProperties;
+
+    private final Object refreshLock = new Object();
+
+    private String versionColumn;
+
+    private String deletedColumn;
+
+    private String deltaQuery;
+
+    private long fullRefreshInterval = 3600000L;
+
+    /**
+     * Highest value of <code>versionColumn</code> seen so far.
+     */
+    private Object highWaterMark;
+
+    private long lastFullRefresh;
+
+    private int fetchSize = -1;
+
+    private int queryTimeout = -1;
+
+    private int maxRows = -1;
+
+    private boolean streamResults;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private File databaseSnapshotFile;
+
+    private long maxSnapshotAge = 86400000L;
+
+    /**
+     * Set when <code>databaseSnapshotFile</code> holds the current <code>databaseProperties</code>, guarded by
+     * <code>refreshLock</code>.
+     */
+    private boolean snapshotCurrent;
+
+    /**
+     * Set when started from the snapshot, until the first refresh from the database has been scheduled.
+     */
+    private volatile boolean reconcilePending;
+
+    private volatile boolean started;
+
+    private long refreshInterval;
+
+    private long refreshJitter;
+
+    private long maxBackoff = 600000L;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Set while a background refresh is queued or running.
+     */
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /**
+     * Consecutive failed scheduled refreshes, only accessed by the scheduler thread.
+     */
+    private int failures;
+
+    /**
+     * Query returning property names and values. The query can contain the same variables supported in
+     * <code>fileLocation</code> (<code>${env}</code>, <code>${appl}</code>, <code>${contextParam/name}</code> and
+     * <code>${systemProperty/name}</code>), which are passed as parameters of a prepared statement, e.g.
+     * <code>SELECT name, value FROM config WHERE env = ${env} AND appl = ${appl}</code>. The application name and the
+     * context parameters are taken from the servlet context of a web application context. Startup fails if a variable
+     * can't be resolved, since binding <code>null</code> would silently match no rows.
+     * @param sqlQuery query
+     */
     public void setSqlQuery(String sqlQuery)
     {
         this.sqlQuery = sqlQuery;
+        this.sqlTemplate = null;
+        this.deltaTemplate = null;
     }
 
     public void setDataSourceName(String dataSourceName)
@@ -69,23 +191,203 @@ public class DatabaseEnvironmentPropertyConfigurer extends EnvironmentPropertyCo
     }
 
     /**
-     * {@inheritDoc}
+     * Sets the datasource directly, instead of looking it up by <code>dataSourceName</code>.
+     * @param dataSource datasource
+     */
+    public void setDataSource(DataSource dataSource)
+    {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = null;
+    }
+
+    /**
+     * File where the last rows successfully loaded from the database are saved. When set and not older than
+     * <code>maxSnapshotAge</code>, startup uses the saved rows without waiting for the database, and reloads them from
+     * the database in background as soon as the context is ready. Note that placeholders in bean definitions are
+     * replaced using the saved rows. If the database is not available at startup, the saved rows are used whatever
+     * their age.
+     * @param databaseSnapshotFile snapshot file
+     */
+    public void setDatabaseSnapshotFile(File databaseSnapshotFile)
+    {
+        this.databaseSnapshotFile = databaseSnapshotFile;
+    }
+
+    /**
+     * Maximum age of <code>databaseSnapshotFile</code> for starting without waiting for the database, in
+     * milliseconds. The age is the time since the saved rows were last confirmed by a refresh, also when the refresh
+     * found no change. Older snapshots are only used if the database is not available. Default is one day, 0 means no
+     * limit.
+     * @param maxSnapshotAge maximum age in milliseconds
+     */
+    public void setMaxSnapshotAge(long maxSnapshotAge)
+    {
+        this.maxSnapshotAge = maxSnapshotAge;
+    }
+
+    /**
+     * Refreshes the database properties in background, on a single daemon thread, every
+     * <code>refreshInterval</code> milliseconds. Default is 0, no automatic refresh.
+     * @param refreshInterval interval in milliseconds
+     */
+    public void setRefreshInterval(long refreshInterval)
+    {
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Maximum random delay added to each scheduled refresh, in milliseconds, so that many servers don't query the
+     * database at the same time. Default is 0.
+     * @param refreshJitter jitter in milliseconds
+     */
+    public void setRefreshJitter(long refreshJitter)
+    {
+        this.refreshJitter = refreshJitter;
+    }
+
+    /**
+     * Maximum delay between scheduled refreshes while the database is failing, in milliseconds. The interval doubles
+     * after each failure up to this value. Default is 10 minutes.
+     * @param maxBackoff maximum delay in milliseconds
+     */
+    public void setMaxBackoff(long maxBackoff)
+    {
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Number of rows fetched from the database in each round trip. Default is the driver default.
+     * @param fetchSize fetch size
+     * @see java.sql.Statement#setFetchSize(int)
+     */
+    public void setFetchSize(int fetchSize)
+    {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Query timeout in seconds. Default is the driver default.
+     * @param queryTimeout timeout in seconds
+     * @see java.sql.Statement#setQueryTimeout(int)
+     */
+    public void setQueryTimeout(int queryTimeout)
+    {
+        this.queryTimeout = queryTimeout;
+    }
+
+    /**
+     * Maximum number of rows loaded from the database. Default is no limit.
+     * @param maxRows maximum number of rows
+     * @see java.sql.Statement#setMaxRows(int)
+     */
+    public void setMaxRows(int maxRows)
+    {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Stream rows from the database instead of letting the driver buffer the whole result. On MySQL and MariaDB this
+     * enables row by row streaming, on other databases it sets a fetch size of 500 rows unless
+     * <code>fetchSize</code> is set. Note that some drivers, e.g. PostgreSQL, only use a cursor when the connection is
+     * not in auto-commit mode.
+     * @param streamResults <code>true</code> to stream results
+     */
+    public void setStreamResults(boolean streamResults)
+    {
+        this.streamResults = streamResults;
+    }
+
+    /**
+     * Lightweight query run before each refresh, e.g. <code>SELECT MAX(version) FROM config</code> or a checksum. Rows
+     * are only reloaded when the values of the first row returned by this query change. The query can contain the
+     * same variables as <code>sqlQuery</code>.
+     * @param probeQuery probe query
+     */
+    public void setProbeQuery(String probeQuery)
+    {
+        this.probeQuery = probeQuery;
+        this.probeTemplate = null;
+    }
+
+    /**
+     * Enables incremental refreshes. After the first full load, {@link #refresh()} only fetches rows with a value of
+     * this column (a version number or a last modified timestamp) greater than the highest value seen so far. The
+     * column must be returned by <code>sqlQuery</code>.
+     * @param versionColumn name of the version or last modified column
+     */
+    public void setVersionColumn(String versionColumn)
+    {
+        this.versionColumn = versionColumn;
+        this.deltaTemplate = null;
+    }
+
+    /**
+     * Name of an optional column that marks deleted rows (tombstones). Marked rows are skipped by full loads and
+     * remove the property when fetched by an incremental refresh. Rows with a <code>null</code> value are handled the
+     * same way.
+     * @param deletedColumn name of a boolean column
+     */
+    public void setDeletedColumn(String deletedColumn)
+    {
+        this.deletedColumn = deletedColumn;
+    }
+
+    /**
+     * Query used for incremental refreshes, with a <code>?</code> parameter for the high-water mark, that must follow
+     * any variable used in the query. Defaults to <code>sqlQuery</code> filtered by
+     * <code>versionColumn &gt; ?</code>.
+     * @param deltaQuery incremental query
+     */
+    public void setDeltaQuery(String deltaQuery)
+    {
+        this.deltaQuery = deltaQuery;
+        this.deltaTemplate = null;
+    }
+
+    /**
+     * Interval between full reloads when using incremental refreshes, in milliseconds. Full reloads catch deletes
+     * without tombstones and changes missed because of concurrent transactions. Default is one hour, 0 disables them.
+     * @param fullRefreshInterval interval in milliseconds
+     */
+    public void setFullRefreshInterval(long fullRefreshInterval)
+    {
+        this.fullRefreshInterval = fullRefreshInterval;
+    }
+
+    /**
+     * {@inheritDoc} The context is only used to look up the datasource, to publish change events and to resolve the
+     * variables in the queries, the servlet context is not used to resolve locations.
      */
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException
     {
+        setEventContext(applicationContext);
+        setTemplateContext(applicationContext);
         this.applicationContext = applicationContext;
     }
 
     /**
-     * Get Spring Context proprieties.
-     * @return A properties object containing all spring properties.
+     * Checks that all the variables used in the queries can be resolved.
+     * @throws BeanInitializationException if a variable resolves to <code>null</code> or an empty string
      */
-    @Override
-    public Properties getProperties()
+    private void checkQueryVariables()
     {
-        // loadAndRefresh(); @todo is this needed anymore?
-        return properties;
+        LocationTemplate.Variables variables = getTemplateVariables();
+        List<String> unresolved = new ArrayList<>(getSqlTemplate().getUnresolvedPlaceholders(variables));
+        if (versionColumn != null)
+        {
+            unresolved.addAll(getDeltaTemplate().getUnresolvedPlaceholders(variables));
+        }
+        if (probeQuery != null)
+        {
+            unresolved.addAll(getProbeTemplate().getUnresolvedPlaceholders(variables));
+        }
+        if (!unresolved.isEmpty())
+        {
+            throw new BeanInitializationException("Unable to resolve variables "
+                + new LinkedHashSet<>(unresolved)
+                + " used in the database queries");
+        }
     }
 
     /**
@@ -93,56 +395,579 @@ public class DatabaseEnvironmentPropertyConfigurer extends EnvironmentPropertyCo
      */
     private void loadAndRefresh() throws IOException
     {
-        properties = mergeProperties();
-        refresh();
+        if (fileProperties == null)
+        {
+            // no fileLocation, only local properties: merged once
+            fileProperties = PropertyStore.of(mergeProperties());
+        }
+
+        if (loadDatabaseSnapshot(true))
+        {
+            publish();
+
+            // reconcile with the live database in background, once started
+            reconcilePending = true;
+            return;
+        }
+
+        publish();
+        if (!reloadRows() && loadDatabaseSnapshot(false))
+        {
+            log.warn("Database not available, using the last known properties from {}", databaseSnapshotFile);
+            publish();
+        }
+    }
+
+    /**
+     * Loads the database properties from <code>databaseSnapshotFile</code>.
+     * @param checkAge only load the snapshot if not older than <code>maxSnapshotAge</code>
+     * @return <code>true</code> if properties have been loaded
+     */
+    private boolean loadDatabaseSnapshot(boolean checkAge)
+    {
+        if (databaseSnapshotFile == null || !databaseSnapshotFile.isFile())
+        {
+            return false;
+        }
+
+        long age = System.currentTimeMillis() - databaseSnapshotFile.lastModified();
+        if (checkAge && maxSnapshotAge > 0 && age > maxSnapshotAge)
+        {
+            log.info(
+                "Database snapshot {} is {} ms old, loading properties from the database",
+                databaseSnapshotFile,
+                age);
+            return false;
+        }
+
+        Properties rows = ConfigurationSnapshot.read(databaseSnapshotFile, getSnapshotFingerprint());
+        if (rows == null)
+        {
+            return false;
+        }
+
+        databaseProperties = PropertyStore.of(rows);
+        snapshotCurrent = true;
+        log.info("Loaded {} database properties from snapshot {}", rows.size(), databaseSnapshotFile);
+        return true;
+    }
+
+    private String getSnapshotFingerprint()
+    {
+        List<Object> parameters = new ArrayList<>();
+        String query = getSqlTemplate().bind(getTemplateVariables(), parameters);
+        return dataSourceName + '\n' + query + '\n' + parameters + '\n' + deletedColumn;
     }
 
     /**
      * used to reload configuration code from db
      */
     public void refresh()
+    {
+        reloadRows();
+    }
+
+    /**
+     * Schedules a refresh on the background thread, unless one is already running or queued. Never waits for the
+     * database.
+     * @return <code>true</code> if a refresh has been scheduled
+     */
+    public boolean refreshAsync()
+    {
+        ScheduledExecutorService executor = getScheduler();
+        if (!refreshing.compareAndSet(false, true))
+        {
+            return false;
+        }
+        try
+        {
+            executor.execute(() -> {
+                try
+                {
+                    reloadRows();
+                }
+                finally
+                {
+                    refreshing.set(false);
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException e)
+        {
+            refreshing.set(false);
+            return false;
+        }
+    }
+
+    /**
+     * Loads the rows and publishes them. On failure the last good rows are kept.
+     * @return <code>false</code> if the query failed
+     */
+    private boolean reloadRows()
     {
         manuallyLoadDatasource();
 
+        synchronized (refreshLock)
+        {
+            long now = System.currentTimeMillis();
+            boolean full = versionColumn == null
+                || highWaterMark == null
+                || fullRefreshInterval > 0
+                && now - lastFullRefresh >= fullRefreshInterval;
+
+            ConfigurationMetrics metrics = getMetrics();
+
+            List<String> probe = null;
+            if (probeQuery != null)
+            {
+                // a periodic full reconcile runs anyway, it catches deletes that don't change the probed value
+                boolean reconcile = versionColumn != null && highWaterMark != null && full;
+
+                long probeStart = System.nanoTime();
+                try
+                {
+                    probe = runProbe();
+                }
+                catch (DataAccessException e)
+                {
+                    log.error(e.getMessage());
+                    if (metrics != null)
+                    {
+                        metrics.databaseProbed(getBeanName(), System.nanoTime() - probeStart, false, false);
+                    }
+                    return false;
+                }
+
+                boolean changed = !probe.equals(lastProbe);
+                if (metrics != null)
+                {
+                    metrics.databaseProbed(getBeanName(), System.nanoTime() - probeStart, changed, true);
+                }
+                if (!changed && !reconcile)
+                {
+                    log.debug("Probe value {} unchanged, skipping database refresh", probe);
+                    touchDatabaseSnapshot();
+                    return true;
+                }
+            }
+
+            long start = System.nanoTime();
+
+            // full loads are sized after the previous one
+            RowHandler handler = new RowHandler(full, full ? databaseProperties.size() : 16);
+            try
+            {
+                JdbcTemplate jdbcTemplate = getJdbcTemplate();
+                if (full)
+                {
+                    List<Object> parameters = new ArrayList<>();
+                    String query = getSqlTemplate().bind(getTemplateVariables(), parameters);
+                    jdbcTemplate.query(query, handler, parameters.toArray());
+                }
+                else
+                {
+                    List<Object> parameters = new ArrayList<>();
+                    String query = getDeltaTemplate().bind(getTemplateVariables(), parameters);
+                    parameters.add(highWaterMark);
+                    jdbcTemplate.query(query, handler, parameters.toArray());
+                }
+            }
+            catch (DataAccessException e)
+            {
+                log.error(e.getMessage());
+                if (metrics != null)
+                {
+                    metrics.databaseRefreshed(getBeanName(), System.nanoTime() - start, 0, false);
+                }
+                return false;
+            }
+
+            long elapsed = System.nanoTime() - start;
+            if (metrics != null)
+            {
+                metrics.databaseRefreshed(getBeanName(), elapsed, handler.count, true);
+            }
+            log.debug(
+                "Fetched {} rows from database in {} ms ({} refresh)",
+                handler.count,
+                TimeUnit.NANOSECONDS.toMillis(elapsed),
+                full ? "full" : "incremental");
+
+            if (handler.version != null)
+            {
+                highWaterMark = handler.version;
+            }
+            if (probe != null)
+            {
+                lastProbe = probe;
+            }
+
+            PropertyStore loaded;
+            if (full)
+            {
+                lastFullRefresh = now;
+                loaded = PropertyStore.of(handler.rows);
+            }
+            else if (handler.count > 0)
+            {
+                log.debug(
+                    "Applying {} changed and {} deleted properties from database",
+                    handler.rows.size(),
+                    handler.deleted.size());
+
+                // changes are applied to a copy, readers keep using the published snapshot
+                Map<String, String> rows = new HashMap<>(capacity(databaseProperties.size() + handler.rows.size()));
+                databaseProperties.forEach(rows::put);
+                for (String key : handler.deleted)
+                {
+                    rows.remove(key);
+                }
+                rows.putAll(handler.rows);
+                loaded = PropertyStore.of(rows);
+            }
+            else
+            {
+                loaded = databaseProperties;
+            }
+
+            if (loaded == databaseProperties || loaded.changedKeys(databaseProperties).isEmpty())
+            {
+                // nothing changed
+                touchDatabaseSnapshot();
+                return true;
+            }
+            databaseProperties = loaded;
+            writeDatabaseSnapshot();
+        }
+
+        // shared with reload(), so that concurrent file and database changes are published and notified in order
+        synchronized (getReloadLock())
+        {
+            PropertyStore previous = getPropertyStore();
+            publish();
+            if (started)
+            {
+                fireChanges(previous, getPropertyStore());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts refreshing in background every <code>refreshInterval</code> milliseconds.
+     */
+    private void startScheduler()
+    {
+        if (refreshInterval > 0)
+        {
+            log.debug("Refreshing database properties every {} ms", refreshInterval);
+            scheduleNext(refreshInterval);
+        }
+    }
+
+    private void scheduleNext(long delay)
+    {
+        long jitter = refreshJitter > 0 ? ThreadLocalRandom.current().nextLong(refreshJitter + 1) : 0;
+        try
+        {
+            getScheduler().schedule(this::scheduledRefresh, delay + jitter, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // shutting down
+        }
+    }
+
+    private void scheduledRefresh()
+    {
+        boolean success = true;
+        if (refreshing.compareAndSet(false, true))
+        {
+            try
+            {
+                success = reloadRows();
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Error refreshing database properties: " + e.getMessage(), e);
+                success = false;
+            }
+            finally
+            {
+                refreshing.set(false);
+            }
+        }
+
+        long delay = refreshInterval;
+        if (success)
+        {
+            failures = 0;
+        }
+        else
+        {
+            // exponential backoff, the last good properties are kept meanwhile
+            failures++;
+            delay = Math.min(refreshInterval << Math.min(failures, 20), Math.max(refreshInterval, maxBackoff));
+            log.warn("Database refresh failed {} times, retrying in {} ms", failures, delay);
+        }
+        scheduleNext(delay);
+    }
+
+    private synchronized ScheduledExecutorService getScheduler()
+    {
+        if (scheduler == null)
+        {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("database-properties-refresh-");
+            threadFactory.setDaemon(true);
+            scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        }
+        return scheduler;
+    }
+
+    private synchronized void stopScheduler()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Marks the snapshot as just verified against the database, without rewriting unchanged rows. Its age is checked
+     * against <code>maxSnapshotAge</code> at startup.
+     */
+    private void touchDatabaseSnapshot()
+    {
+        if (databaseSnapshotFile != null
+            && (!snapshotCurrent
+                || !databaseSnapshotFile.isFile()
+                || !databaseSnapshotFile.setLastModified(System.currentTimeMillis())))
+        {
+            writeDatabaseSnapshot();
+        }
+    }
+
+    private void writeDatabaseSnapshot()
+    {
+        if (databaseSnapshotFile != null)
+        {
+            ConfigurationSnapshot.write(
+                databaseSnapshotFile,
+                getSnapshotFingerprint(),
+                databaseProperties.asProperties());
+            snapshotCurrent = true;
+        }
+    }
+
+    /**
+     * Returns the compiled query used for incremental refreshes.
+     * @return compiled query, with a last parameter for the high-water mark
+     */
+    private LocationTemplate getDeltaTemplate()
+    {
+        LocationTemplate template = deltaTemplate;
+        if (template == null)
+        {
+            template = compileQuery(deltaQuery != null
+                ? deltaQuery
+                : "SELECT * FROM (" + sqlQuery + ") delta WHERE " + versionColumn + " > ?");
+            deltaTemplate = template;
+        }
+        return template;
+    }
+
+    /**
+     * Runs <code>probeQuery</code>.
+     * @return values of all the columns of the first row, empty if no rows are returned
+     */
+    private List<String> runProbe()
+    {
+        List<Object> parameters = new ArrayList<>();
+        String query = getProbeTemplate().bind(getTemplateVariables(), parameters);
+        return getJdbcTemplate().query(query, rs -> {
+            List<String> values = new ArrayList<>();
+            if (rs.next())
+            {
+                int columns = rs.getMetaData().getColumnCount();
+                for (int j = 1; j <= columns; j++)
+                {
+                    values.add(rs.getString(j));
+                }
+            }
+            return values;
+        }, parameters.toArray());
+    }
+
+    /**
+     * Returns the compiled <code>probeQuery</code>.
+     * @return compiled query
+     */
+    private LocationTemplate getProbeTemplate()
+    {
+        LocationTemplate template = probeTemplate;
+        if (template == null)
+        {
+            template = compileQuery(probeQuery);
+            probeTemplate = template;
+        }
+        return template;
+    }
+
+    /**
+     * Returns the compiled <code>sqlQuery</code>.
+     * @return compiled query
+     */
+    private LocationTemplate getSqlTemplate()
+    {
+        LocationTemplate template = sqlTemplate;
+        if (template == null)
+        {
+            template = compileQuery(sqlQuery);
+            sqlTemplate = template;
+        }
+        return template;
+    }
+
+    private LocationTemplate compileQuery(String query)
+    {
+        LocationTemplate template = compileTemplate(query);
+        if (!template.getUnknownPlaceholders().isEmpty())
+        {
+            log.warn(
+                "Unknown placeholders {} in query {}, they will not be replaced",
+                template.getUnknownPlaceholders(),
+                query);
+        }
+        return template;
+    }
+
+    /**
+     * Database properties are published as a layer on top of the file properties.
+     * @param fileStore properties loaded from the configured files
+     */
+    @Override
+    protected void publishProperties(PropertyStore fileStore)
+    {
+        synchronized (getReloadLock())
+        {
+            fileProperties = fileStore;
+            publish();
+        }
+    }
+
+    /**
+     * Publishes a new snapshot made of the last file properties and the rows loaded by the last successful refresh.
+     * Neither is copied, a refresh only replaces the database layer.
+     */
+    private void publish()
+    {
+        synchronized (getReloadLock())
+        {
+            super.publishProperties(PropertyStore.layered(Arrays.asList(databaseProperties, fileProperties)));
+        }
+    }
+
+    /**
+     * Collects the rows extracted by the query.
+     */
+    private class RowHandler implements RowCallbackHandler
+    {
+
+        private final boolean full;
+
+        final Map<String, String> rows;
+
+        final Set<String> deleted = new HashSet<>();
+
+        int count;
+
+        Object version;
+
+        RowHandler(boolean full, int expectedRows)
+        {
+            this.full = full;
+            this.rows = new HashMap<>(capacity(expectedRows));
+        }
+
         /**
-         * inner utility class to create properties from rows extracted by the query
-         * @author diego
-         * @version $Id$
+         * {@inheritDoc}
          */
-        class RowHandler implements RowCallbackHandler
+        @SuppressWarnings({"unchecked", "rawtypes" })
+        public void processRow(final ResultSet rs) throws SQLException
         {
+            count++;
+            String parmName = rs.getString(1);
+            String parmValue = rs.getString(2);
 
-            /**
-             * {@inheritDoc}
-             */
-            public void processRow(final ResultSet rs) throws SQLException
+            if (versionColumn != null)
             {
-                String parmName = rs.getString(1);
-                String parmValue = rs.getString(2);
+                Object rowVersion = rs.getObject(versionColumn);
+                if (rowVersion instanceof Comparable
+                    && (version == null || version.getClass() != rowVersion.getClass() || ((Comparable) rowVersion)
+                        .compareTo(version) > 0))
+                {
+                    version = rowVersion;
+                }
+            }
 
-                log.debug("Configuring property {}={}", parmName, parmValue);
-                properties.put(parmName, parmValue);
+            if (parmValue == null || deletedColumn != null && rs.getBoolean(deletedColumn))
+            {
+                if (!full)
+                {
+                    if (log.isTraceEnabled())
+                    {
+                        log.trace("Removing property {}", parmName);
+                    }
+                    deleted.add(parmName);
+                    rows.remove(parmName);
+                }
+                return;
+            }
 
+            if (log.isTraceEnabled())
+            {
+                log.trace("Configuring property {}={}", parmName, parmValue);
             }
+            rows.put(parmName, parmValue);
+            deleted.remove(parmName);
         }
+    }
 
-        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
-        try
+    /**
+     * {@inheritDoc}
+     */
+    public void onApplicationEvent(ApplicationContextEvent event)
+    {
+        if (event.getApplicationContext() != applicationContext)
         {
-            jdbcTemplate.query(sqlQuery, new RowHandler());
+            // events from child contexts
+            return;
         }
-        catch (DataAccessException e)
+        if (event instanceof ContextRefreshedEvent)
         {
-            log.error(e.getMessage());
+            manuallyLoadDatasource();
+            if (reconcilePending)
+            {
+                reconcilePending = false;
+                refreshAsync();
+            }
+        }
+        else if (event instanceof ContextClosedEvent)
+        {
+            stopScheduler();
         }
     }
 
     /**
      * {@inheritDoc}
      */
-    public void onApplicationEvent(ApplicationEvent event)
+    @Override
+    public void destroy()
     {
-        manuallyLoadDatasource();
+        stopScheduler();
+        super.destroy();
     }
 
     /**
@@ -153,15 +978,55 @@ public class DatabaseEnvironmentPropertyConfigurer extends EnvironmentPropertyCo
         if (dataSource == null)
         {
             dataSource = (DataSource) applicationContext.getBean(dataSourceName);
-            try
-            {
-                properties = mergeProperties();
-            }
-            catch (IOException e)
+        }
+    }
+
+    /**
+     * Returns the template used for all the queries, configured on first use.
+     * @return configured template
+     */
+    private synchronized JdbcTemplate getJdbcTemplate()
+    {
+        if (jdbcTemplate == null)
+        {
+            JdbcTemplate template = new JdbcTemplate(dataSource);
+            template.setQueryTimeout(queryTimeout);
+            template.setMaxRows(maxRows);
+
+            int rowsPerFetch = fetchSize;
+            if (streamResults)
             {
-                log.debug("Exception while loading environment properties from file.");
+                String product = null;
+                try
+                {
+                    product = JdbcUtils.commonDatabaseName(JdbcUtils.extractDatabaseMetaData(
+                        dataSource,
+                        "getDatabaseProductName"));
+                }
+                catch (MetaDataAccessException e)
+                {
+                    log.debug("Unable to detect the database type: {}", e.getMessage());
+                }
+
+                if (StringUtils.startsWithAny(product, "MySQL", "MariaDB"))
+                {
+                    // the only way to get rows one by one from MySQL Connector/J, instead of the whole result set
+                    rowsPerFetch = Integer.MIN_VALUE;
+                }
+                else if (rowsPerFetch <= 0)
+                {
+                    rowsPerFetch = DEFAULT_STREAMING_FETCH_SIZE;
+                }
             }
+            template.setFetchSize(rowsPerFetch);
+            jdbcTemplate = template;
         }
+        return jdbcTemplate;
+    }
+
+    private static int capacity(int expected)
+    {
+        return Math.max(16, (int) (expected / 0.75f) + 1);
     }
 
     /**
@@ -172,17 +1037,32 @@ public class DatabaseEnvironmentPropertyConfigurer extends EnvironmentPropertyCo
     {
 
         super.postProcessBeanFactory(beanFactory);
+        checkQueryVariables();
 
         try
         {
             loadAndRefresh();
-            Properties mergedProps = properties;
+            // a modifiable copy, the published properties are read-only
+            Properties mergedProps = new Properties();
+            mergedProps.putAll(getProperties());
 
             // Convert the merged properties, if necessary.
             convertProperties(mergedProps);
 
             // Let the subclass process the properties.
             processProperties(beanFactory, mergedProps);
+
+            // changes are only notified after startup
+            started = true;
+            startScheduler();
+
+            // a datasource looked up by name is only available when the context has been refreshed, since its
+            // definition can contain placeholders
+            if (reconcilePending && dataSource != null)
+            {
+                reconcilePending = false;
+                refreshAsync();
+            }
         }
         catch (IOException ex)
         {
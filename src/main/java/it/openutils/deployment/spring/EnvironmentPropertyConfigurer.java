@@ -17,33 +17,52 @@
  */
 package it.openutils.deployment.spring;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetAddress;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.UnknownHostException;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
+import it.openutils.deployment.ConfigTreeIndex;
+import it.openutils.deployment.ServerIdentity;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.servlet.ServletContext;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.beans.factory.config.PropertyPlaceholderConfigurer;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.util.CollectionUtils;
+import org.springframework.core.Constants;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ObjectUtils;
 import org.springframework.util.ResourceUtils;
 import org.springframework.web.context.WebApplicationContext;
 
@@ -76,7 +95,10 @@ import org.springframework.web.context.WebApplicationContext;
  * @author fgiust
  * @version $Id: EnvironmentPropertyConfigurer.java 592 2010-03-19 13:24:12Z christian.strappazzon $
  */
-public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer implements ApplicationContextAware
+public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
+    implements
+    ApplicationContextAware,
+    DisposableBean
 {
 
     private String serverPropertyName = "env";
@@ -90,12 +112,61 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
 
     private ServletContext servletContext;
 
+    /**
+     * Servlet context used for the application name and context parameters in templates, also when it's not used to
+     * resolve locations.
+     */
+    private ServletContext templateContext;
+
+    /**
+     * Context used to publish change events and to identify the deployment.
+     */
+    private ApplicationContext eventContext;
+
+    private final List<Subscription> changeListeners = new CopyOnWriteArrayList<>();
+
     private String fileLocation;
 
     /**
-     * Cached properties (super field is private).
+     * <code>fileLocation</code> parsed into a template, lazily compiled.
+     */
+    private LocationTemplate locationTemplate;
+
+    /**
+     * Cached properties (super field is private). Replaced as a whole when properties are reloaded, read-only. Same
+     * content as <code>store</code>.
+     */
+    protected volatile Properties properties;
+
+    /**
+     * Immutable store used for lookups, replaced as a whole when properties are reloaded.
+     */
+    private volatile PropertyStore store;
+
+    /**
+     * Server name used to resolve locations.
+     */
+    private String serverName;
+
+    /**
+     * Application name used to resolve locations.
+     */
+    private String applicationName;
+
+    /**
+     * Locations resolved from the last load.
+     */
+    private String[] resolvedLocations;
+
+    /**
+     * Watcher used when <code>reloadOnChange</code> is enabled.
+     */
+    private PropertyFileWatcher watcher;
+
+    /**
+     * Serializes loading and publishing, between startup, the watcher thread and explicit reloads.
      */
-    protected Properties properties;
+    private final Object reloadLock = new Object();
 
     /**
      * Are properties inherited from default configuration? default is true,
@@ -112,6 +183,103 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
      */
     private boolean exposeServerName;
 
+    /**
+     * Keys exposed as system properties, <code>null</code> to expose all the properties.
+     */
+    private Set<String> exposedKeys;
+
+    /**
+     * Key prefixes exposed as system properties.
+     */
+    private List<String> exposedPrefixes = Collections.emptyList();
+
+    /**
+     * Probe and load all the candidate locations in parallel.
+     */
+    private boolean parallelLoading;
+
+    /**
+     * Max number of threads used when <code>parallelLoading</code> is enabled.
+     */
+    private int loadingThreads = 4;
+
+    /**
+     * Minimum number of keys for resolving placeholders in parallel.
+     */
+    private static final int PARALLEL_PLACEHOLDERS_THRESHOLD = 1000;
+
+    /**
+     * Resolve all the placeholders in the merged properties once, before processing bean definitions.
+     */
+    private boolean preResolvePlaceholders;
+
+    /**
+     * Mode for system properties (super field is private).
+     */
+    private int systemPropertiesMode = SYSTEM_PROPERTIES_MODE_FALLBACK;
+
+    /**
+     * Look up webapp locations in the shared {@link ConfigTreeIndex}.
+     */
+    private boolean useConfigIndex;
+
+    /**
+     * Use {@link PropertiesParser} instead of <code>Properties.load()</code>.
+     */
+    private boolean streamingParser;
+
+    /**
+     * Share parsed files through {@link PropertyLayerCache}.
+     */
+    private boolean sharedLayerCache;
+
+    /**
+     * Encoding of the property files, <code>null</code> for the default ISO-8859-1.
+     */
+    private String fileEncoding;
+
+    /**
+     * Optional snapshot of the resolved properties, used to skip loading when no source has changed.
+     */
+    private File snapshotFile;
+
+    /**
+     * Watch property files and reload them when changed.
+     */
+    private boolean reloadOnChange;
+
+    /**
+     * Use polling instead of a watch service to detect changes.
+     */
+    private boolean reloadPolling;
+
+    /**
+     * Optional callback for timings and counters.
+     */
+    private ConfigurationMetrics metrics;
+
+    /**
+     * Register a {@link ConfigurationStats} MBean.
+     */
+    private boolean registerMBean;
+
+    /**
+     * Name of the registered MBean.
+     */
+    private ObjectName registeredName;
+
+    private String beanName;
+
+    /**
+     * Poll interval in milliseconds.
+     */
+    private long reloadInterval = 5000L;
+
+    /**
+     * Debounce delay in milliseconds.
+     */
+    private long reloadDelay = 1000L;
+
     /**
      * Setter for <code>fileLocation</code>.
      * @param fileLocation The fileLocation to set.
@@ -119,6 +287,7 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
     public void setFileLocation(String fileLocation)
     {
         this.fileLocation = fileLocation;
+        this.locationTemplate = null;
     }
 
     /**
@@ -137,6 +306,7 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
     public void setServerPropertyName(String serverPropertyName)
     {
         this.serverPropertyName = serverPropertyName;
+        this.locationTemplate = null;
     }
 
     /**
@@ -146,10 +316,13 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
     public void setApplicationPropertyName(String applicationPropertyName)
     {
         this.applicationPropertyName = applicationPropertyName;
+        this.locationTemplate = null;
     }
 
     /**
-     * Set all the properties configured as system properties.
+     * Set all the properties configured as system properties. With <code>reloadOnChange</code> or an explicit
+     * {@link #reload()}, system properties are updated at runtime when their value changes; keys removed from the
+     * files are not cleared.
      * @param exposeSystemProperties <code>true</code> if you want to set configured properties as system properties.
      */
     public void setExposeSystemProperties(boolean exposeSystemProperties)
@@ -157,6 +330,32 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
         this.exposeSystemProperties = exposeSystemProperties;
     }
 
+    /**
+     * Limits the properties set as system properties when <code>exposeSystemProperties</code> is enabled. System
+     * properties are shared by all the webapps in the container, and setting them all makes every lookup in the global
+     * table slower: use this to only expose what's needed (e.g. by libraries configured through system properties).
+     * @param exposedProperties comma separated list of keys; entries ending with <code>*</code> are prefixes (e.g.
+     * <code>mail.smtp.host, javax.net.ssl.*</code>)
+     */
+    public void setExposedProperties(String exposedProperties)
+    {
+        Set<String> keys = new HashSet<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String entry : StringUtils.stripAll(StringUtils.split(exposedProperties, ",")))
+        {
+            if (entry.endsWith("*"))
+            {
+                prefixes.add(StringUtils.removeEnd(entry, "*"));
+            }
+            else if (entry.length() > 0)
+            {
+                keys.add(entry);
+            }
+        }
+        this.exposedKeys = keys;
+        this.exposedPrefixes = prefixes;
+    }
+
     /**
      * Expose the server name as system property.
      * @param exposeServerName <code>true</code> if you want to set the server name as system property (with the key
@@ -167,6 +366,194 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
         this.exposeServerName = exposeServerName;
     }
 
+    /**
+     * Probe and load all the candidate locations in parallel instead of one at a time. Properties are still merged
+     * following the order of <code>fileLocation</code>. Note that with <code>inherit=false</code> all the locations are
+     * read, also the ones after the first match.
+     * @param parallelLoading <code>true</code> to load locations in parallel
+     */
+    public void setParallelLoading(boolean parallelLoading)
+    {
+        this.parallelLoading = parallelLoading;
+    }
+
+    /**
+     * Max number of threads used when <code>parallelLoading</code> is enabled, default is 4.
+     * @param loadingThreads number of threads
+     */
+    public void setLoadingThreads(int loadingThreads)
+    {
+        this.loadingThreads = loadingThreads;
+    }
+
+    /**
+     * Resolve all the placeholders in the merged properties once, before processing bean definitions, instead of
+     * resolving nested placeholders again for each bean definition value. Keys referencing each other are resolved as
+     * a graph: each value is resolved only once, and a cycle between keys fails startup with the chain of keys
+     * involved, even if no bean uses them. When <code>parallelLoading</code> is enabled and there are more than 1000
+     * keys, up to <code>loadingThreads</code> threads are used. Placeholders that can't be resolved are left in the
+     * values and handled as usual when used.
+     * @param preResolvePlaceholders <code>true</code> to resolve placeholders in advance
+     */
+    public void setPreResolvePlaceholders(boolean preResolvePlaceholders)
+    {
+        this.preResolvePlaceholders = preResolvePlaceholders;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSystemPropertiesMode(int systemPropertiesMode)
+    {
+        this.systemPropertiesMode = systemPropertiesMode;
+        super.setSystemPropertiesMode(systemPropertiesMode);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSystemPropertiesModeName(String constantName)
+    {
+        super.setSystemPropertiesModeName(constantName);
+        this.systemPropertiesMode = new Constants(PropertyPlaceholderConfigurer.class)
+            .asNumber(constantName)
+            .intValue();
+    }
+
+    /**
+     * Parse property files with {@link PropertiesParser}, which reads resources into a pooled buffer without a
+     * Reader, instead of using <code>Properties.load()</code>. When loading sequentially
+     * with <code>inherit=true</code> and without <code>sharedLayerCache</code>, values of keys already defined by a
+     * location with an higher precedence are skipped without being built.
+     * @param streamingParser <code>true</code> to use the streaming parser
+     */
+    public void setStreamingParser(boolean streamingParser)
+    {
+        this.streamingParser = streamingParser;
+    }
+
+    /**
+     * Look up webapp locations in <code>WEB-INF/config</code> using the {@link ConfigTreeIndex} shared with the log4j
+     * listener, instead of probing each missing location through the servlet context. Only used for the initial load
+     * of an exploded webapp. Default is <code>false</code>: a location missing from the exploded directory is not
+     * looked up through the servlet context anymore, so only enable it when configuration files are never served from
+     * <code>META-INF/resources</code> in jars, container overlays or virtual directories.
+     * @param useConfigIndex <code>true</code> to look up locations in the index
+     */
+    public void setUseConfigIndex(boolean useConfigIndex)
+    {
+        this.useConfigIndex = useConfigIndex;
+    }
+
+    /**
+     * Share parsed property files with all the configurers in the JVM, using {@link PropertyLayerCache}. Only files
+     * that can be identified by a file on disk (including files in jars) are cached; a file is parsed again as soon as
+     * its size or last modified date changes. This is useful when many webapps or configurer beans load the same
+     * defaults, e.g. from a jar in the shared library folder of the container.
+     * @param sharedLayerCache <code>true</code> to share parsed files
+     */
+    public void setSharedLayerCache(boolean sharedLayerCache)
+    {
+        this.sharedLayerCache = sharedLayerCache;
+    }
+
+    /**
+     * {@inheritDoc} Also used for the files in <code>fileLocation</code>, default is ISO-8859-1.
+     */
+    @Override
+    public void setFileEncoding(String encoding)
+    {
+        this.fileEncoding = encoding;
+        super.setFileEncoding(encoding);
+    }
+
+    /**
+     * Location of an optional snapshot of the resolved properties. When set, the merged properties are stored in this
+     * file together with the server name, webapp name, resolved locations and the size and last modified date of each
+     * source. At the next startup the snapshot is used instead of loading the property files, unless any of these
+     * changed. Sources that can't be checked without reading them (e.g. a non exploded webapp) disable the snapshot.
+     * @param snapshotFile snapshot file
+     */
+    public void setSnapshotFile(File snapshotFile)
+    {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Watch the resolved property files and reload them when they change. Reloaded values are returned by
+     * {@link #getProperty(String)} and {@link #getProperties()}, bean definitions already configured are not changed.
+     * Only files on the filesystem (e.g. an exploded webapp) can be watched.
+     * @param reloadOnChange <code>true</code> to reload properties when files change
+     */
+    public void setReloadOnChange(boolean reloadOnChange)
+    {
+        this.reloadOnChange = reloadOnChange;
+    }
+
+    /**
+     * Detect changes by polling the files instead of using a watch service, which may not be reliable on network
+     * filesystems. Polling is also used when a watch service is not available.
+     * @param reloadPolling <code>true</code> to force polling
+     */
+    public void setReloadPolling(boolean reloadPolling)
+    {
+        this.reloadPolling = reloadPolling;
+    }
+
+    /**
+     * Poll interval when polling for changes, in milliseconds. Default is 5000.
+     * @param reloadInterval poll interval in milliseconds
+     */
+    public void setReloadInterval(long reloadInterval)
+    {
+        this.reloadInterval = reloadInterval;
+    }
+
+    /**
+     * Properties are reloaded only when no further change has been detected for this delay, so that a burst of
+     * changes causes a single reload. Default is 1000 milliseconds.
+     * @param reloadDelay delay in milliseconds
+     */
+    public void setReloadDelay(long reloadDelay)
+    {
+        this.reloadDelay = reloadDelay;
+    }
+
+    /**
+     * Callback notified with the duration of each resolution phase, of each probed location (with bytes and keys
+     * loaded) and, for {@link DatabaseEnvironmentPropertyConfigurer}, of each database refresh.
+     * @param metrics callback
+     */
+    public void setMetrics(ConfigurationMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Publish timings and counters through a {@link ConfigurationStatsMBean}, registered in the platform MBean server
+     * as <code>it.openutils.deployment:type=EnvironmentPropertyConfigurer,context=[context id],name=[bean name]</code>,
+     * where the context id is the id of the application context (for web contexts it contains the context path). Any
+     * callback set with {@link #setMetrics(ConfigurationMetrics)} is still notified. A name already registered is a
+     * configuration error and fails startup.
+     * @param registerMBean <code>true</code> to register a MBean
+     */
+    public void setRegisterMBean(boolean registerMBean)
+    {
+        this.registerMBean = registerMBean;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setBeanName(String beanName)
+    {
+        this.beanName = beanName;
+        super.setBeanName(beanName);
+    }
+
     @Override
     public void setNullValue(String nullValue)
     {
@@ -181,44 +568,20 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
     public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory)
     {
 
-        Map<String, String> initParametersMap = new HashMap<>();
+        if (registerMBean && registeredName == null)
+        {
+            registerMBean();
+        }
 
         if (fileLocation != null)
         {
 
-            if (this.servletContext != null)
-            {
-
-                Enumeration<String> initParameters = servletContext.getInitParameterNames();
-                while (initParameters.hasMoreElements())
-                {
-                    String paramName = initParameters.nextElement();
-                    initParametersMap
-                        .put("${contextParam/" + paramName + "}", servletContext.getInitParameter(paramName));
-                }
-            }
-
-            Set<Entry<Object, Object>> entrySet = System.getProperties().entrySet();
-            if (!CollectionUtils.isEmpty(entrySet))
-            {
-                Iterator<Entry<Object, Object>> props = entrySet.iterator();
-                while (props.hasNext())
-                {
-                    Entry<Object, Object> entry = props.next();
-                    String propName = (String) entry.getKey();
-                    initParametersMap.put("${systemProperty/" + propName + "}", (String) entry.getValue());
-                }
-            }
+            long start = System.nanoTime();
 
-            String hostname = null;
-            try
+            String hostname = ServerIdentity.getServerName();
+            if (metrics != null)
             {
-                hostname = StringUtils
-                    .substringBefore(StringUtils.lowerCase(InetAddress.getLocalHost().getHostName()), ".");
-            }
-            catch (UnknownHostException e)
-            {
-                log.error(e.getMessage()); // should not happen
+                metrics.phaseCompleted(beanName, ConfigurationMetrics.PHASE_SERVER_NAME, System.nanoTime() - start);
             }
             String applName = getApplicationName();
 
@@ -232,7 +595,6 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
                     }
                     System.setProperty(serverPropertyName, hostname);
                 }
-                initParametersMap.put("${" + serverPropertyName + "}", hostname);
             }
 
             if (applName != null)
@@ -246,129 +608,874 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
                     }
                     System.setProperty(applicationPropertyName, applName);
                 }
-
-                initParametersMap.put("${" + applicationPropertyName + "}", applName);
             }
 
-            URL propertyUrl = null;
-
-            String fileLocationFull = fileLocation;
+            this.serverName = hostname;
+            this.applicationName = applName;
 
-            String replacedLocations = replaceAll(initParametersMap, fileLocationFull);
-
-            String[] locations = StringUtils.split(replacedLocations, ",");
-
-            if (inherit)
+            synchronized (reloadLock)
             {
-                ArrayUtils.reverse(locations);
+                PropertyStore loaded = resolveProperties();
+                super.setProperties(loaded.asProperties());
+                publishProperties(loaded);
             }
 
-            Properties props = new Properties();
-            boolean found = false;
-
-            for (String loc : locations)
+            if (metrics != null)
             {
-                propertyUrl = getResource(StringUtils.strip(loc));
-                if (propertyUrl != null)
-                {
-                    found = true;
-                    log.debug("Loading property file at {} from {}", loc, propertyUrl);
-
-                    Resource resource = new UrlResource(propertyUrl);
-                    InputStream is = null;
-
-                    try
-                    {
-                        is = resource.getInputStream();
-                        props.load(is);
-                    }
-                    catch (IOException e)
-                    {
-                        log.error("Error loading " + propertyUrl.toString(), e);
-                    }
-                    finally
-                    {
-                        if (is != null)
-                        {
-                            try
-                            {
-                                is.close();
-                            }
-                            catch (IOException e)
-                            {
-                                // ignore
-                            }
-                        }
-                    }
-
-                    if (!inherit)
-                    {
-                        break;
-                    }
-                }
-                else
-                {
-                    log.debug("Property file not found at {}", loc);
-                }
-
+                metrics.phaseCompleted(beanName, ConfigurationMetrics.PHASE_TOTAL, System.nanoTime() - start);
             }
 
-            if (!found)
+            if (reloadOnChange)
             {
-                log.error("No properties found at {}", replacedLocations);
+                startWatcher();
             }
+        }
 
-            this.properties = props;
-            super.setProperties(props);
+        super.postProcessBeanFactory(beanFactory);
+    }
 
-            if (exposeSystemProperties)
+    /**
+     * {@inheritDoc} With <code>preResolvePlaceholders</code>, placeholders in the values are resolved first, so bean
+     * definitions only need a lookup.
+     */
+    @Override
+    protected void processProperties(ConfigurableListableBeanFactory beanFactoryToProcess, Properties props)
+    {
+        Properties resolved = props;
+        if (preResolvePlaceholders)
+        {
+            long start = System.nanoTime();
+            resolved = resolvePlaceholders(props);
+            if (metrics != null)
             {
-                Iterator<Object> i = props.keySet().iterator();
-                while (i.hasNext())
-                {
-                    String key = (String) i.next();
-                    String value = (String) props.get(key);
-
-                    if (System.getProperty(key) != null)
-                    {
-                        log.warn("Overwriting system property {}", key);
-                    }
-                    System.setProperty(key, value);
-                }
-
+                metrics.phaseCompleted(beanName, ConfigurationMetrics.PHASE_PLACEHOLDERS, System.nanoTime() - start);
             }
-
         }
-
-        super.postProcessBeanFactory(beanFactory);
+        super.processProperties(beanFactoryToProcess, resolved);
     }
 
     /**
-     * @param propertyenv
-     * @param hostname
-     * @param fileLocationFull
-     * @return
+     * Resolves the placeholders in the values of the given properties, with the same prefix, suffix, value separator
+     * and system properties mode used for bean definitions.
+     * @param props merged properties
+     * @return new properties with resolved values
      */
-    private String replaceAll(Map<String, String> params, String fileLocationFull)
+    protected Properties resolvePlaceholders(final Properties props)
     {
-        String replacedLocations = fileLocationFull;
-
-        for (Map.Entry<String, String> param : params.entrySet())
+        Predicate<String> overridden = key -> false;
+        if (systemPropertiesMode == SYSTEM_PROPERTIES_MODE_OVERRIDE)
         {
-            replacedLocations = StringUtils.replace(replacedLocations, param.getKey(), param.getValue());
+            overridden = key -> resolveSystemProperty(key) != null;
         }
 
-        return replacedLocations;
+        PlaceholderGraph graph = new PlaceholderGraph(
+            props,
+            placeholderPrefix,
+            placeholderSuffix,
+            valueSeparator,
+            name -> resolvePlaceholder(name, props, systemPropertiesMode),
+            overridden);
+
+        int threads = parallelLoading && props.size() > PARALLEL_PLACEHOLDERS_THRESHOLD ? loadingThreads : 1;
+        try
+        {
+            return graph.resolveAll(threads);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new BeanInitializationException(e.getMessage(), e);
+        }
     }
 
-    private URL getResource(String resource)
+    /**
+     * Resolves the locations and loads the properties, from the snapshot when available.
+     * @return loaded properties, one layer for each location found unless loaded from the snapshot
+     */
+    private PropertyStore resolveProperties()
     {
-        URL url = null;
+        String replacedLocations = getLocationTemplate().resolve(
+            new TemplateVariables(serverName, applicationName, servletContext));
+
+        String[] locations = StringUtils.stripAll(StringUtils.split(replacedLocations, ","));
+        this.resolvedLocations = locations;
+
+        PropertyStore loaded = null;
+        String fingerprint = null;
 
-        if (servletContext != null && !StringUtils.contains(resource, "classpath:"))
+        if (snapshotFile != null)
+        {
+            fingerprint = fingerprint(serverName, applicationName, locations);
+            if (fingerprint != null)
+            {
+                long start = System.nanoTime();
+                Properties props = ConfigurationSnapshot.read(snapshotFile, fingerprint);
+                if (props != null)
+                {
+                    loaded = PropertyStore.of(props);
+                    log.debug("Properties loaded from snapshot {}", snapshotFile);
+                    if (metrics != null)
+                    {
+                        metrics.phaseCompleted(
+                            beanName,
+                            ConfigurationMetrics.PHASE_SNAPSHOT,
+                            System.nanoTime() - start);
+                    }
+                }
+            }
+        }
+
+        if (loaded == null)
+        {
+            loaded = loadLocations(locations, replacedLocations);
+            if (fingerprint != null)
+            {
+                ConfigurationSnapshot.write(snapshotFile, fingerprint, loaded.asProperties());
+            }
+        }
+
+        if (exposeSystemProperties)
+        {
+            loaded.forEach((key, value) -> {
+                if (!isExposed(key) || value.equals(System.getProperty(key)))
+                {
+                    return;
+                }
+
+                if (System.getProperty(key) != null)
+                {
+                    log.warn("Overwriting system property {}", key);
+                }
+                System.setProperty(key, value);
+            });
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Checks if a property must be set as system property when <code>exposeSystemProperties</code> is enabled.
+     * @param key property key
+     * @return <code>true</code> if no <code>exposedProperties</code> have been configured or if the key matches one of
+     * them
+     */
+    private boolean isExposed(String key)
+    {
+        if (exposedKeys == null)
+        {
+            return true;
+        }
+        if (exposedKeys.contains(key))
+        {
+            return true;
+        }
+        for (String prefix : exposedPrefixes)
+        {
+            if (key.startsWith(prefix))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes a new set of properties visible to {@link #getProperty(String)} and {@link #getProperties()}. The
+     * immutable store is published with a single volatile write, so readers never see a partially merged state.
+     * Subclasses can override this method to add layers for additional sources before publishing.
+     * @param fileStore properties loaded from the configured files
+     */
+    protected void publishProperties(PropertyStore fileStore)
+    {
+        this.store = fileStore;
+        this.properties = fileStore.asProperties();
+    }
+
+    /**
+     * Reloads the property files and publishes the new properties. Placeholders already replaced in bean definitions
+     * are not affected, only the values returned by this configurer are. When <code>exposeSystemProperties</code> is
+     * enabled, the exposed system properties are updated too. Concurrent reloads (e.g. from the watcher thread and an
+     * explicit call) are serialized, so changes are loaded, published and notified in order.
+     */
+    public void reload()
+    {
+        if (fileLocation == null)
+        {
+            return;
+        }
+
+        synchronized (reloadLock)
+        {
+            long start = System.nanoTime();
+            PropertyStore previous = store;
+            PropertyStore loaded = resolveProperties();
+            super.setProperties(loaded.asProperties());
+            publishProperties(loaded);
+            if (metrics != null)
+            {
+                metrics.phaseCompleted(beanName, ConfigurationMetrics.PHASE_TOTAL, System.nanoTime() - start);
+            }
+            log.info("Reloaded properties from {}", StringUtils.join(resolvedLocations, ", "));
+            fireChanges(previous, store);
+        }
+    }
+
+    /**
+     * Subscribes to changes of a key. The listener is notified after a reload or refresh changes, adds or removes the
+     * given key.
+     * @param key property key, or a prefix followed by <code>*</code> (e.g. <code>mail.*</code>) to subscribe to all
+     * the keys starting with the prefix
+     * @param listener listener
+     */
+    public void addChangeListener(String key, PropertiesChangeListener listener)
+    {
+        changeListeners.add(new Subscription(key, listener));
+    }
+
+    /**
+     * Removes all the subscriptions of a listener.
+     * @param listener listener
+     */
+    public void removeChangeListener(PropertiesChangeListener listener)
+    {
+        changeListeners.removeIf(subscription -> subscription.listener == listener);
+    }
+
+    /**
+     * Computes the keys changed between two published stores, then publishes a {@link PropertiesChangedEvent} to the
+     * application context and notifies the subscribed listeners. Nothing is done if nothing changed.
+     * @param previous previously published properties, may be <code>null</code>
+     * @param current published properties
+     */
+    protected void fireChanges(PropertyStore previous, PropertyStore current)
+    {
+        if (previous == null || previous == current || eventContext == null && changeListeners.isEmpty())
+        {
+            return;
+        }
+
+        Set<String> changed = current.changedKeys(previous);
+        if (changed.isEmpty())
+        {
+            return;
+        }
+        log.debug("Properties changed: {}", changed);
+
+        if (eventContext != null)
+        {
+            eventContext.publishEvent(new PropertiesChangedEvent(
+                this,
+                Collections.unmodifiableSet(changed),
+                previous,
+                current));
+        }
+
+        for (Subscription subscription : changeListeners)
+        {
+            Set<String> matching = new HashSet<>();
+            for (String key : changed)
+            {
+                if (subscription.matches(key))
+                {
+                    matching.add(key);
+                }
+            }
+
+            if (!matching.isEmpty())
+            {
+                try
+                {
+                    subscription.listener.propertiesChanged(new PropertiesChangedEvent(
+                        this,
+                        Collections.unmodifiableSet(matching),
+                        previous,
+                        current));
+                }
+                catch (RuntimeException e)
+                {
+                    log.error("Error notifying changes of " + matching + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private void startWatcher()
+    {
+        List<File> files = new ArrayList<>();
+        for (String location : resolvedLocations)
+        {
+            try
+            {
+                File file = sourceFile(location);
+                if (file != null)
+                {
+                    files.add(file);
+                }
+            }
+            catch (IOException e)
+            {
+                // not a file, can't be watched
+            }
+        }
+
+        if (files.isEmpty())
+        {
+            log.warn("None of the property files at {} can be watched for changes", fileLocation);
+            return;
+        }
+
+        watcher = new PropertyFileWatcher(
+            files.toArray(new File[files.size()]),
+            reloadDelay,
+            reloadInterval,
+            reloadPolling,
+            this::reload);
+        watcher.start();
+    }
+
+    private void registerMBean()
+    {
+        ConfigurationStats stats = new ConfigurationStats(metrics);
+        try
+        {
+            ObjectName name = new ObjectName("it.openutils.deployment:type="
+                + ClassUtils.getShortName(getClass())
+                + ",context="
+                + ObjectName.quote(getDeploymentKey())
+                + ",name="
+                + ObjectName.quote(StringUtils.defaultString(beanName, "environmentProperties")));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, name);
+            registeredName = name;
+            metrics = stats;
+        }
+        catch (InstanceAlreadyExistsException e)
+        {
+            throw new BeanInitializationException("A configuration MBean named "
+                + e.getMessage()
+                + " is already registered, check the bean name of the configurer", e);
+        }
+        catch (JMException e)
+        {
+            log.warn("Unable to register configuration MBean: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a key identifying this deployment in MBean names, since the platform MBean server is shared by all the
+     * webapps in a container: the id of the application context (which contains the context path for web contexts),
+     * or the webapp name.
+     * @return deployment key
+     */
+    private String getDeploymentKey()
+    {
+        if (eventContext != null && eventContext.getId() != null)
+        {
+            return eventContext.getId();
+        }
+        String applName = getApplicationName();
+        if (StringUtils.isNotEmpty(applName))
+        {
+            return applName;
+        }
+        return ObjectUtils.getIdentityHexString(this);
+    }
+
+    /**
+     * Compiles a template that uses the same variables as <code>fileLocation</code>.
+     * @param template template string
+     * @return compiled template
+     */
+    protected LocationTemplate compileTemplate(String template)
+    {
+        return LocationTemplate.compile(template, serverPropertyName, applicationPropertyName);
+    }
+
+    /**
+     * Returns the values of the variables available to templates: server and application name, context parameters
+     * and system properties. The application name and the context parameters come from the servlet context set with
+     * {@link #setTemplateContext(ApplicationContext)}, even when locations are not resolved through it.
+     * @return variables
+     */
+    protected LocationTemplate.Variables getTemplateVariables()
+    {
+        return new TemplateVariables(
+            serverName != null ? serverName : ServerIdentity.getServerName(),
+            StringUtils.isNotEmpty(applicationName) ? applicationName : getApplicationName(templateContext),
+            templateContext);
+    }
+
+    /**
+     * Returns the lock that serializes loading, publishing and change notifications. Subclasses that publish
+     * properties from other sources must hold it while reading the previous store, publishing and firing changes, so
+     * that they don't interleave with {@link #reload()}.
+     * @return lock
+     */
+    protected final Object getReloadLock()
+    {
+        return reloadLock;
+    }
+
+    /**
+     * Returns the callback for timings and counters.
+     * @return callback, <code>null</code> if not configured
+     */
+    protected ConfigurationMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Returns the name of this configurer bean, as used for metrics.
+     * @return bean name
+     */
+    protected String getBeanName()
+    {
+        return beanName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void destroy()
+    {
+        if (watcher != null)
+        {
+            watcher.stop();
+            watcher = null;
+        }
+        if (registeredName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            }
+            catch (JMException e)
+            {
+                log.debug("Unable to unregister configuration MBean: {}", e.getMessage());
+            }
+            registeredName = null;
+        }
+    }
+
+    /**
+     * Returns the compiled <code>fileLocation</code> template, parsing it on first use.
+     * @return compiled template
+     */
+    private LocationTemplate getLocationTemplate()
+    {
+        LocationTemplate template = locationTemplate;
+        if (template == null)
+        {
+            template = compileTemplate(fileLocation);
+            if (!template.getUnknownPlaceholders().isEmpty())
+            {
+                log.warn(
+                    "Unknown placeholders {} in fileLocation {}, they will not be replaced",
+                    template.getUnknownPlaceholders(),
+                    fileLocation);
+            }
+            locationTemplate = template;
+        }
+        return template;
+    }
+
+    /**
+     * Loads the given locations. Each location found becomes a layer of the returned store, instead of being copied
+     * into a single map.
+     * @param locations resolved locations
+     * @param replacedLocations resolved location list, for logging
+     * @return layered properties, first location found has the highest priority
+     */
+    private PropertyStore loadLocations(String[] locations, String replacedLocations)
+    {
+        long start = System.nanoTime();
+        List<LoadedLocation> loaded = parallelLoading ? loadConcurrently(locations) : loadSequentially(locations);
+
+        List<PropertyStore> layers = new ArrayList<>(loaded.size());
+        for (LoadedLocation location : loaded)
+        {
+            if (location.url != null)
+            {
+                layers.add(location.store != null ? location.store : PropertyStore.of(location.properties));
+
+                if (!inherit)
+                {
+                    break;
+                }
+            }
+        }
+
+        if (layers.isEmpty())
+        {
+            log.error("No properties found at {}", replacedLocations);
+        }
+
+        if (metrics != null)
+        {
+            metrics.phaseCompleted(beanName, ConfigurationMetrics.PHASE_LOAD, System.nanoTime() - start);
+        }
+        // shared layers are always wrapped, so that they don't keep values converted by a single webapp
+        return layers.size() == 1 && !sharedLayerCache ? layers.get(0) : PropertyStore.layered(layers);
+    }
+
+    /**
+     * Computes the fingerprint used to validate a configuration snapshot: server and webapp name, the parsing options
+     * (file encoding, streaming parser), the resolved location list and the size and last modified date of each
+     * existing source.
+     * @param hostname server name
+     * @param applName application name
+     * @param locations resolved locations
+     * @return fingerprint, or <code>null</code> if any of the sources can't be identified without reading it
+     */
+    private String fingerprint(String hostname, String applName, String[] locations)
+    {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(hostname).append('\n').append(applName).append('\n').append(inherit).append('\n');
+        sb.append(fileEncoding).append('|').append(streamingParser).append('\n');
+
+        for (String location : locations)
+        {
+            File file;
+            try
+            {
+                file = sourceFile(location);
+                if (file == null)
+                {
+                    return null;
+                }
+            }
+            catch (FileNotFoundException e)
+            {
+                file = null;
+            }
+            catch (MalformedURLException e)
+            {
+                return null;
+            }
+
+            sb.append(location).append('|');
+            if (file != null && file.exists())
+            {
+                sb.append(file.getAbsolutePath()).append('|').append(file.length()).append('|').append(
+                    file.lastModified());
+            }
+            else
+            {
+                sb.append('-');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the file backing a location, without reading it. For resources inside a jar the jar file itself is
+     * returned.
+     * @param location resolved location
+     * @return source file, which may not exist, or <code>null</code> if the location is not backed by a file (e.g. a
+     * non exploded webapp)
+     * @throws FileNotFoundException if the location is a classpath resource that doesn't exist
+     * @throws MalformedURLException if the location is not a valid URL
+     */
+    private File sourceFile(String location) throws FileNotFoundException, MalformedURLException
+    {
+        File file = null;
+        if (servletContext != null && !StringUtils.contains(location, "classpath:"))
+        {
+            String realPath = servletContext.getRealPath(location.startsWith("/") ? location : "/" + location);
+            if (realPath == null)
+            {
+                // not an exploded webapp
+                return null;
+            }
+            file = new File(realPath);
+        }
+
+        if (file == null || !file.exists())
+        {
+            URL url = ResourceUtils.getURL(location);
+            if (ResourceUtils.isJarURL(url))
+            {
+                file = ResourceUtils.getFile(ResourceUtils.extractArchiveURL(url));
+            }
+            else if (ResourceUtils.isFileURL(url))
+            {
+                file = ResourceUtils.getFile(url);
+            }
+            else
+            {
+                return null;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Parses the URL of a layer from {@link PropertyLayerCache}, with the stream handlers visible to this configurer.
+     * @param url external form of the URL
+     * @return URL, <code>null</code> if it can't be parsed here (the layer is then loaded again)
+     */
+    private static URL toUrl(String url)
+    {
+        try
+        {
+            return new URL(url);
+        }
+        catch (MalformedURLException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Computes the key used for a location in {@link PropertyLayerCache}: the source file, the location inside it, its
+     * size and last modified date, and the encoding used for parsing.
+     * @param location resolved location
+     * @return cache key, <code>null</code> if the location can't be identified without reading it
+     */
+    private String layerKey(String location)
+    {
+        File file;
+        try
+        {
+            file = sourceFile(location);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        if (file == null || !file.isFile())
+        {
+            return null;
+        }
+
+        return file.getAbsolutePath()
+            + '!'
+            + location
+            + '|'
+            + file.length()
+            + '|'
+            + file.lastModified()
+            + '|'
+            + fileEncoding;
+    }
+
+    /**
+     * Loads the given locations one at a time, in order. When <code>inherit</code> is false, stops at the first
+     * location found.
+     * @param locations resolved locations
+     * @return loaded locations, in the same order as <code>locations</code>
+     */
+    private List<LoadedLocation> loadSequentially(String[] locations)
+    {
+        final List<LoadedLocation> loaded = new ArrayList<>(locations.length);
+
+        // with the streaming parser values already defined by a location with an higher precedence are skipped,
+        // unless layers are shared and must be complete
+        Predicate<String> defined = null;
+        if (streamingParser && inherit && !sharedLayerCache)
+        {
+            defined = key -> {
+                for (LoadedLocation previous : loaded)
+                {
+                    if (previous.properties.containsKey(key))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            };
+        }
+
+        for (String location : locations)
+        {
+            LoadedLocation result = load(location, defined);
+            loaded.add(result);
+            if (!inherit && result.url != null)
+            {
+                break;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Probes and loads all the given locations in parallel, using at most <code>loadingThreads</code> threads.
+     * @param locations resolved locations
+     * @return loaded locations, in the same order as <code>locations</code>
+     */
+    private List<LoadedLocation> loadConcurrently(String[] locations)
+    {
+        int threads = Math.max(1, Math.min(loadingThreads, locations.length));
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("environment-properties-");
+        threadFactory.setDaemon(true);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory);
+
+        try
+        {
+            List<Future<LoadedLocation>> futures = new ArrayList<>(locations.length);
+            for (final String location : locations)
+            {
+                futures.add(executor.submit(() -> load(location, null)));
+            }
+
+            List<LoadedLocation> loaded = new ArrayList<>(locations.length);
+            for (Future<LoadedLocation> future : futures)
+            {
+                loaded.add(future.get());
+            }
+            return loaded;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new BeanInitializationException("Interrupted while loading properties", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new BeanInitializationException("Could not load properties", e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Opens a location and loads it. Each resource is opened only once: a successfully opened stream is both the
+     * existence check and the source of the properties.
+     * @param location resolved location
+     * @param defined keys already defined by locations with an higher precedence, whose values can be skipped. May be
+     * <code>null</code>.
+     * @return loaded location, with a <code>null</code> url if the resource doesn't exist
+     */
+    private LoadedLocation load(String location, final Predicate<String> defined)
+    {
+        long start = System.nanoTime();
+        final LoadedLocation result = new LoadedLocation(location);
+        long bytes = 0;
+
+        String cacheKey = sharedLayerCache ? layerKey(location) : null;
+        if (cacheKey != null)
+        {
+            PropertyLayerCache.Layer cached = PropertyLayerCache.get(cacheKey);
+            URL url = cached != null ? toUrl(cached.url) : null;
+            if (url != null)
+            {
+                log.debug("Property file at {} found in the shared layer cache", location);
+                result.url = url;
+                result.store = cached.store;
+                if (metrics != null)
+                {
+                    metrics.locationLoaded(beanName, location, true, System.nanoTime() - start, 0, cached.store.size());
+                }
+                return result;
+            }
+        }
+
+        try
+        {
+            if (!openResource(result))
+            {
+                log.debug("Property file not found at {}", location);
+                return result;
+            }
+
+            log.debug("Loading property file at {} from {}", location, result.url);
+
+            Charset charset = fileEncoding != null ? Charset.forName(fileEncoding) : null;
+            if (streamingParser)
+            {
+                PropertiesParser.Handler handler = new PropertiesParser.Handler()
+                {
+
+                    public boolean accept(String key)
+                    {
+                        return defined == null || !defined.test(key);
+                    }
+
+                    public void property(String key, String value)
+                    {
+                        result.properties.put(key, value);
+                    }
+                };
+
+                bytes = result.stream != null
+                    ? PropertiesParser.parse(result.stream, charset, handler)
+                    : PropertiesParser.parse(result.url, charset, handler);
+            }
+            else
+            {
+                CountingInputStream is = new CountingInputStream(result.stream != null
+                    ? result.stream
+                    : result.url.openStream());
+                result.stream = is;
+                if (charset != null)
+                {
+                    result.properties.load(new InputStreamReader(is, charset));
+                }
+                else
+                {
+                    result.properties.load(is);
+                }
+                bytes = is.count;
+            }
+
+            if (cacheKey != null)
+            {
+                result.store = PropertyStore.of(result.properties);
+                PropertyLayerCache.put(cacheKey, result.url.toExternalForm(), result.store);
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Error loading " + result.url, e);
+        }
+        finally
+        {
+            if (result.stream != null)
+            {
+                try
+                {
+                    result.stream.close();
+                }
+                catch (IOException e)
+                {
+                    // ignore
+                }
+                result.stream = null;
+            }
+
+            if (metrics != null)
+            {
+                metrics.locationLoaded(
+                    beanName,
+                    location,
+                    result.url != null,
+                    System.nanoTime() - start,
+                    bytes,
+                    result.properties.size());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a location exists, setting its URL. The check is done by opening a stream, which is kept in the
+     * location and used for loading. When using the streaming parser, <code>file:</code> URLs are checked without
+     * opening them, since the parser reads them directly from the filesystem.
+     * @param location location to open
+     * @return <code>true</code> if the resource exists
+     */
+    private boolean openResource(LoadedLocation location)
+    {
+        String resource = location.location;
+
+        if (servletContext != null && !StringUtils.contains(resource, "classpath:") && !isMissingFromIndex(resource))
         {
             try
             {
+                URL url;
                 if (resource != null && !resource.startsWith("/"))
                 {
                     url = servletContext.getResource("/" + resource);
@@ -378,12 +1485,11 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
                     url = servletContext.getResource(resource);
                 }
 
-                if (url != null)
+                // getResource always returns a URL in some containers (e.g. servletUnit), also if the resource
+                // doesn't exists: opening the stream is the actual check
+                if (url != null && open(location, url))
                 {
-                    // check needed for servletUnit
-                    // we need to check for a connection because getResource always returns a URL, also if the resource
-                    // doesn't exists
-                    url.openConnection().connect();
+                    return true;
                 }
 
             }
@@ -394,26 +1500,59 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
             catch (IOException e)
             {
                 // ignore, URL is not a valid resource
-                url = null;
             }
         }
-        if (url == null)
+
+        try
         {
-            try
-            {
-                url = ResourceUtils.getURL(resource);
-                url.openStream().close(); // test if the resource actually exists
-            }
-            catch (IOException e)
+            return open(location, ResourceUtils.getURL(resource));
+        }
+        catch (IOException e)
+        {
+            // ignore, can be normal
+            return false;
+        }
+    }
+
+    /**
+     * Checks the {@link ConfigTreeIndex} of the webapp, if enabled. The index is only used for the initial load: files
+     * added later are found by reloads.
+     * @param resource webapp relative location
+     * @return <code>true</code> if the index covers the location and the file doesn't exist
+     */
+    private boolean isMissingFromIndex(String resource)
+    {
+        if (!useConfigIndex || store != null)
+        {
+            return false;
+        }
+        ConfigTreeIndex index = ConfigTreeIndex.get(servletContext);
+        return index != null && index.covers(resource) && !index.isFile(resource);
+    }
+
+    private boolean open(LoadedLocation location, URL url) throws IOException
+    {
+        if (streamingParser && ResourceUtils.isFileURL(url))
+        {
+            if (!ResourceUtils.getFile(url).isFile())
             {
-                // ignore, can be normal
-                url = null;
+                return false;
             }
         }
-        return url;
+        else
+        {
+            location.stream = url.openStream();
+        }
+        location.url = url;
+        return true;
     }
 
     private String getApplicationName()
+    {
+        return getApplicationName(servletContext);
+    }
+
+    private static String getApplicationName(ServletContext servletContext)
     {
         if (servletContext != null)
         {
@@ -430,12 +1569,46 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
     }
 
     /**
-     * Returns the Properties loaded by this configurer.
-     * @return Properties
+     * Sets the context used to publish {@link PropertiesChangedEvent}s and to identify the deployment in MBean names.
+     * Unlike {@link #setApplicationContext(ApplicationContext)}, the servlet context is not used to resolve locations.
+     * @param eventContext application context
+     */
+    protected void setEventContext(ApplicationContext eventContext)
+    {
+        this.eventContext = eventContext;
+    }
+
+    /**
+     * Sets the context whose servlet context, if any, provides the application name and the context parameters
+     * returned by {@link #getTemplateVariables()}. Unlike {@link #setApplicationContext(ApplicationContext)}, the
+     * servlet context is not used to resolve locations.
+     * @param applicationContext application context
+     */
+    protected void setTemplateContext(ApplicationContext applicationContext)
+    {
+        this.templateContext = getServletContext(applicationContext);
+    }
+
+    /**
+     * Returns the Properties loaded by this configurer. The returned object is shared and read-only: methods that
+     * would modify it throw an {@link UnsupportedOperationException}, since changes would not be seen by
+     * {@link #getProperty(String)}, the typed accessors and the bean definitions. Copy it to get modifiable
+     * properties.
+     * @return read-only Properties, <code>null</code> if properties have not been loaded yet
      */
     public Properties getProperties()
     {
-        return properties;
+        PropertyStore current = store;
+        return current != null ? current.asProperties() : null;
+    }
+
+    /**
+     * Returns the immutable store with the properties loaded by this configurer.
+     * @return store, <code>null</code> if properties have not been loaded yet
+     */
+    public PropertyStore getPropertyStore()
+    {
+        return store;
     }
 
     /**
@@ -446,30 +1619,269 @@ public class EnvironmentPropertyConfigurer extends PropertyPlaceholderConfigurer
     public String getProperty(String key)
     {
         // better be safe, it doesn't hurt
-        if (properties == null)
+        PropertyStore current = store;
+        if (current == null)
+        {
+            return null;
+        }
+        return current.get(key);
+    }
+
+    /**
+     * Returns a property as an int. Converted values are cached until properties are reloaded, so repeated calls don't
+     * parse the value again.
+     * @param key Property key
+     * @param defaultValue value returned if the property is not defined
+     * @return property value
+     * @throws IllegalArgumentException if the value is not a valid int
+     */
+    public int getInt(String key, int defaultValue)
+    {
+        Integer value = getConverted(key, PropertyConverters.INT);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Returns a property as a long. Converted values are cached until properties are reloaded.
+     * @param key Property key
+     * @param defaultValue value returned if the property is not defined
+     * @return property value
+     * @throws IllegalArgumentException if the value is not a valid long
+     */
+    public long getLong(String key, long defaultValue)
+    {
+        Long value = getConverted(key, PropertyConverters.LONG);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Returns a property as a boolean (<code>true</code> ignoring case, anything else is <code>false</code>). Converted
+     * values are cached until properties are reloaded.
+     * @param key Property key
+     * @param defaultValue value returned if the property is not defined
+     * @return property value
+     */
+    public boolean getBoolean(String key, boolean defaultValue)
+    {
+        Boolean value = getConverted(key, PropertyConverters.BOOLEAN);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Returns a property as a duration, expressed either in ISO-8601 format (e.g. <code>PT30S</code>) or as a number of
+     * milliseconds. Converted values are cached until properties are reloaded.
+     * @param key Property key
+     * @param defaultValue value returned if the property is not defined
+     * @return property value
+     * @throws IllegalArgumentException if the value is not a valid duration
+     */
+    public Duration getDuration(String key, Duration defaultValue)
+    {
+        Duration value = getConverted(key, PropertyConverters.DURATION);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Returns a property as a list of comma separated values. Values are trimmed, empty values are skipped. Converted
+     * values are cached until properties are reloaded.
+     * @param key Property key
+     * @return unmodifiable list of values, empty if the property is not defined
+     */
+    public List<String> getList(String key)
+    {
+        List<String> value = getConverted(key, PropertyConverters.LIST);
+        return value != null ? value : Collections.<String> emptyList();
+    }
+
+    /**
+     * Returns a property as an enum constant. Converted values are cached until properties are reloaded.
+     * @param <E> enum type
+     * @param key Property key
+     * @param type enum class
+     * @param defaultValue value returned if the property is not defined
+     * @return property value
+     * @throws IllegalArgumentException if the value is not a constant of the given enum
+     */
+    public <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue)
+    {
+        E value = getConverted(key, PropertyConverters.forEnum(type));
+        return value != null ? value : defaultValue;
+    }
+
+    private <T> T getConverted(String key, Function<String, T> converter)
+    {
+        PropertyStore current = store;
+        if (current == null)
         {
             return null;
         }
-        return properties.getProperty(key);
+        try
+        {
+            return current.getConverted(key, converter);
+        }
+        catch (RuntimeException e)
+        {
+            throw new IllegalArgumentException("Invalid value for property " + key + ": " + current.get(key), e);
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     public void setApplicationContext(ApplicationContext applicationContext)
+    {
+        setEventContext(applicationContext);
+        setTemplateContext(applicationContext);
+        this.servletContext = templateContext;
+    }
+
+    private static ServletContext getServletContext(ApplicationContext applicationContext)
     {
         // don't implement ServletContextAware or it will fail if javax.servlet dependency is not available
         try
         {
             if (applicationContext instanceof WebApplicationContext)
             {
-                this.servletContext = ((WebApplicationContext) applicationContext).getServletContext();
+                return ((WebApplicationContext) applicationContext).getServletContext();
             }
         }
         catch (NoClassDefFoundError e)
         {
             // ignore, we are not in a web project or spring web is not available
         }
+        return null;
+    }
+
+    /**
+     * Variables used to resolve the location template, context params and system properties are looked up on demand.
+     */
+    private static class TemplateVariables implements LocationTemplate.Variables
+    {
+
+        private final String serverName;
+
+        private final String applicationName;
+
+        private final ServletContext context;
+
+        TemplateVariables(String serverName, String applicationName, ServletContext context)
+        {
+            this.serverName = serverName;
+            this.applicationName = applicationName;
+            this.context = context;
+        }
+
+        public String getServerName()
+        {
+            return serverName;
+        }
+
+        public String getApplicationName()
+        {
+            return applicationName;
+        }
+
+        public String getContextParam(String name)
+        {
+            return context != null ? context.getInitParameter(name) : null;
+        }
+
+        public String getSystemProperty(String name)
+        {
+            return System.getProperty(name);
+        }
+    }
+
+    /**
+     * A listener subscribed to a key or prefix.
+     */
+    private static class Subscription
+    {
+
+        final PropertiesChangeListener listener;
+
+        private final String key;
+
+        private final boolean prefix;
+
+        Subscription(String key, PropertiesChangeListener listener)
+        {
+            this.listener = listener;
+            this.prefix = key.endsWith("*");
+            this.key = prefix ? StringUtils.removeEnd(key, "*") : key;
+        }
+
+        boolean matches(String changed)
+        {
+            return prefix ? changed.startsWith(key) : changed.equals(key);
+        }
+    }
+
+    /**
+     * A candidate location, with the properties loaded from it.
+     */
+    private static class LoadedLocation
+    {
+
+        final String location;
+
+        final Properties properties = new Properties();
+
+        /**
+         * Resolved URL, <code>null</code> if the resource doesn't exist.
+         */
+        URL url;
+
+        /**
+         * Stream opened while probing the location, if any.
+         */
+        InputStream stream;
+
+        /**
+         * Parsed properties, when already wrapped in a store.
+         */
+        PropertyStore store;
+
+        LoadedLocation(String location)
+        {
+            this.location = location;
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream.
+     */
+    private static class CountingInputStream extends FilterInputStream
+    {
+
+        long count;
+
+        CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int result = super.read();
+            if (result >= 0)
+            {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int result = super.read(b, off, len);
+            if (result > 0)
+            {
+                count += result;
+            }
+            return result;
+        }
     }
 
 }
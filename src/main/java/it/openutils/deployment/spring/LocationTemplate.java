@@ -0,0 +1,297 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+
+/**
+ * A location string (such as the <code>fileLocation</code> of {@link EnvironmentPropertyConfigurer}) parsed once into a
+ * sequence of literal text and variables. Only the variables actually used in the template are looked up when it is
+ * resolved, so the cost of a resolution depends on the template and not on the number of system properties or context
+ * parameters available.
+ * <p>
+ * Supported variables are the server name, the application name, <code>${contextParam/name}</code> and
+ * <code>${systemProperty/name}</code>. Any other <code>${...}</code> sequence is kept as literal text and reported by
+ * {@link #getUnknownPlaceholders()}.
+ * </p>
+ * @author fgiust
+ * @version $Id$
+ */
+public final class LocationTemplate
+{
+
+    /**
+     * Prefix for web context init parameter variables.
+     */
+    public static final String CONTEXT_PARAM_PREFIX = "contextParam/";
+
+    /**
+     * Prefix for system property variables.
+     */
+    public static final String SYSTEM_PROPERTY_PREFIX = "systemProperty/";
+
+    private static final String PLACEHOLDER_PREFIX = "${";
+
+    private static final String PLACEHOLDER_SUFFIX = "}";
+
+    private final String template;
+
+    private final Segment[] segments;
+
+    private final List<String> unknownPlaceholders;
+
+    private LocationTemplate(String template, Segment[] segments, List<String> unknownPlaceholders)
+    {
+        this.template = template;
+        this.segments = segments;
+        this.unknownPlaceholders = unknownPlaceholders;
+    }
+
+    /**
+     * Parses a template.
+     * @param template template string
+     * @param serverPropertyName name of the server name variable (e.g. <code>env</code>)
+     * @param applicationPropertyName name of the application name variable (e.g. <code>appl</code>)
+     * @return compiled template
+     */
+    public static LocationTemplate compile(String template, String serverPropertyName, String applicationPropertyName)
+    {
+        List<Segment> segments = new ArrayList<>();
+        List<String> unknown = new ArrayList<>();
+
+        int pos = 0;
+        while (pos < template.length())
+        {
+            int start = template.indexOf(PLACEHOLDER_PREFIX, pos);
+            int end = start < 0 ? -1 : template.indexOf(PLACEHOLDER_SUFFIX, start + PLACEHOLDER_PREFIX.length());
+            if (end < 0)
+            {
+                segments.add(new Segment(VariableType.LITERAL, template.substring(pos), null));
+                break;
+            }
+
+            if (start > pos)
+            {
+                segments.add(new Segment(VariableType.LITERAL, template.substring(pos, start), null));
+            }
+
+            String raw = template.substring(start, end + PLACEHOLDER_SUFFIX.length());
+            String name = template.substring(start + PLACEHOLDER_PREFIX.length(), end);
+
+            if (name.equals(serverPropertyName))
+            {
+                segments.add(new Segment(VariableType.SERVER, raw, name));
+            }
+            else if (name.equals(applicationPropertyName))
+            {
+                segments.add(new Segment(VariableType.APPLICATION, raw, name));
+            }
+            else if (name.startsWith(CONTEXT_PARAM_PREFIX))
+            {
+                segments.add(new Segment(
+                    VariableType.CONTEXT_PARAM,
+                    raw,
+                    name.substring(CONTEXT_PARAM_PREFIX.length())));
+            }
+            else if (name.startsWith(SYSTEM_PROPERTY_PREFIX))
+            {
+                segments.add(new Segment(
+                    VariableType.SYSTEM_PROPERTY,
+                    raw,
+                    name.substring(SYSTEM_PROPERTY_PREFIX.length())));
+            }
+            else
+            {
+                unknown.add(raw);
+                segments.add(new Segment(VariableType.LITERAL, raw, null));
+            }
+
+            pos = end + PLACEHOLDER_SUFFIX.length();
+        }
+
+        return new LocationTemplate(
+            template,
+            segments.toArray(new Segment[segments.size()]),
+            Collections.unmodifiableList(unknown));
+    }
+
+    /**
+     * Resolves the template, looking up only the variables it contains. Variables that can't be resolved are left
+     * untouched.
+     * @param variables variable source
+     * @return resolved string
+     */
+    public String resolve(Variables variables)
+    {
+        StringBuilder sb = new StringBuilder(template.length() + 32);
+        for (Segment segment : segments)
+        {
+            String value = valueOf(segment, variables);
+            sb.append(value != null ? value : segment.text);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Resolves the template as a parameterized SQL statement: each variable is replaced by a <code>?</code> and its
+     * value is added to <code>parameters</code>, in order, so that values never need to be escaped and the statement
+     * text doesn't change with them. Variables that can't be resolved are bound as <code>null</code>, which in SQL
+     * doesn't match any row: use {@link #getUnresolvedPlaceholders(Variables)} to detect them.
+     * @param variables variable source
+     * @param parameters list where values are added
+     * @return statement text
+     */
+    public String bind(Variables variables, List<Object> parameters)
+    {
+        StringBuilder sb = new StringBuilder(template.length());
+        for (Segment segment : segments)
+        {
+            if (segment.type == VariableType.LITERAL)
+            {
+                sb.append(segment.text);
+            }
+            else
+            {
+                sb.append('?');
+                parameters.add(valueOf(segment, variables));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the variables of the template that resolve to <code>null</code> or to an empty string.
+     * @param variables variable source
+     * @return unresolved placeholders (e.g. <code>${contextParam/name}</code>), never <code>null</code>
+     */
+    public List<String> getUnresolvedPlaceholders(Variables variables)
+    {
+        List<String> unresolved = new ArrayList<>();
+        for (Segment segment : segments)
+        {
+            if (segment.type != VariableType.LITERAL && StringUtils.isEmpty(valueOf(segment, variables)))
+            {
+                unresolved.add(segment.text);
+            }
+        }
+        return unresolved;
+    }
+
+    private static String valueOf(Segment segment, Variables variables)
+    {
+        switch (segment.type)
+        {
+            case SERVER :
+                return variables.getServerName();
+            case APPLICATION :
+                return variables.getApplicationName();
+            case CONTEXT_PARAM :
+                return variables.getContextParam(segment.name);
+            case SYSTEM_PROPERTY :
+                return variables.getSystemProperty(segment.name);
+            default :
+                return null;
+        }
+    }
+
+    /**
+     * Returns the <code>${...}</code> placeholders found in the template that don't match any known variable.
+     * @return unknown placeholders, never <code>null</code>
+     */
+    public List<String> getUnknownPlaceholders()
+    {
+        return unknownPlaceholders;
+    }
+
+    /**
+     * Returns the original template string.
+     * @return template string
+     */
+    public String getTemplate()
+    {
+        return template;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return template;
+    }
+
+    /**
+     * Source of variable values, queried on demand while resolving a template.
+     */
+    public interface Variables
+    {
+
+        /**
+         * @return the server name, or <code>null</code> if not available
+         */
+        String getServerName();
+
+        /**
+         * @return the application name, or <code>null</code> if not available
+         */
+        String getApplicationName();
+
+        /**
+         * @param name init parameter name
+         * @return the web context init parameter value, or <code>null</code> if not available
+         */
+        String getContextParam(String name);
+
+        /**
+         * @param name system property name
+         * @return the system property value, or <code>null</code> if not available
+         */
+        String getSystemProperty(String name);
+    }
+
+    private enum VariableType
+    {
+        LITERAL, SERVER, APPLICATION, CONTEXT_PARAM, SYSTEM_PROPERTY;
+    }
+
+    private static final class Segment
+    {
+
+        final VariableType type;
+
+        /**
+         * Literal text, or the raw placeholder for variables (used when the variable can't be resolved).
+         */
+        final String text;
+
+        final String name;
+
+        Segment(VariableType type, String text, String name)
+        {
+            this.type = type;
+            this.text = text;
+            this.name = StringUtils.defaultString(name);
+        }
+    }
+}
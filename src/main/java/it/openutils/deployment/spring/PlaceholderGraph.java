@@ -0,0 +1,202 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.PropertyPlaceholderHelper;
+import org.springframework.util.PropertyPlaceholderHelper.PlaceholderResolver;
+
+
+/**
+ * Resolves the placeholders of a set of properties once, following references between keys as a dependency graph.
+ * Each key is fully resolved only once and memoized, so a value referenced by many other keys is not parsed again.
+ * References between keys that form a cycle are reported with the whole chain of keys.
+ * <p>
+ * Placeholders that can't be resolved are kept as they are, so the placeholder configurer still reports or ignores
+ * them as usual when they are actually used in bean definitions.
+ * </p>
+ * @author fgiust
+ * @version $Id$
+ */
+final class PlaceholderGraph
+{
+
+    private final Properties source;
+
+    private final PropertyPlaceholderHelper helper;
+
+    /**
+     * Resolves names that are not keys of <code>source</code>, or that must not be resolved from it (system
+     * properties in override mode).
+     */
+    private final PlaceholderResolver external;
+
+    /**
+     * Keys whose value must come from <code>external</code> even if defined in <code>source</code>.
+     */
+    private final Predicate<String> overridden;
+
+    private final Map<String, String> resolved;
+
+    /**
+     * @param source properties to resolve
+     * @param prefix placeholder prefix
+     * @param suffix placeholder suffix
+     * @param valueSeparator separator for default values, may be <code>null</code>
+     * @param external resolver for other names, e.g. system properties
+     * @param overridden keys resolved with <code>external</code> even if defined in <code>source</code>
+     */
+    PlaceholderGraph(
+        Properties source,
+        String prefix,
+        String suffix,
+        String valueSeparator,
+        PlaceholderResolver external,
+        Predicate<String> overridden)
+    {
+        this.source = source;
+        this.helper = new PropertyPlaceholderHelper(prefix, suffix, valueSeparator, true);
+        this.external = external;
+        this.overridden = overridden;
+        this.resolved = new ConcurrentHashMap<>(Math.max(16, source.size() * 2));
+    }
+
+    /**
+     * Resolves all the keys.
+     * @param threads number of threads, the keys are split among them if greater than 1
+     * @return new properties with resolved values
+     * @throws IllegalArgumentException if some keys reference each other in a cycle
+     */
+    Properties resolveAll(int threads)
+    {
+        final List<String> keys = new ArrayList<>(source.stringPropertyNames());
+        if (threads <= 1)
+        {
+            for (String key : keys)
+            {
+                resolve(key, new LinkedHashSet<String>());
+            }
+        }
+        else
+        {
+            resolveConcurrently(keys, threads);
+        }
+
+        Properties result = new Properties();
+        result.putAll(resolved);
+        return result;
+    }
+
+    /**
+     * Splits the keys among threads. The memo is shared: keys referenced from more than one slice may be resolved by
+     * more than one thread at the same time, always to the same value.
+     */
+    private void resolveConcurrently(final List<String> keys, int threads)
+    {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("environment-placeholders-");
+        threadFactory.setDaemon(true);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory);
+        try
+        {
+            int slice = (keys.size() + threads - 1) / threads;
+            List<Future< ? >> futures = new ArrayList<>(threads);
+            for (int j = 0; j < keys.size(); j += slice)
+            {
+                final List<String> part = keys.subList(j, Math.min(keys.size(), j + slice));
+                futures.add(executor.submit(() -> {
+                    for (String key : part)
+                    {
+                        resolve(key, new LinkedHashSet<String>());
+                    }
+                }));
+            }
+            for (Future< ? > future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while resolving placeholders", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Could not resolve placeholders", e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Resolves a key, resolving first the keys it references.
+     * @param key key
+     * @param path keys being resolved by the current thread, in order, used to detect cycles
+     * @return resolved value
+     */
+    private String resolve(final String key, final Set<String> path)
+    {
+        String value = resolved.get(key);
+        if (value != null)
+        {
+            return value;
+        }
+
+        if (!path.add(key))
+        {
+            List<String> cycle = new ArrayList<>(path);
+            cycle = cycle.subList(cycle.indexOf(key), cycle.size());
+            throw new IllegalArgumentException("Circular placeholder reference in properties: "
+                + StringUtils.join(cycle, " -> ")
+                + " -> "
+                + key);
+        }
+
+        value = helper.replacePlaceholders(source.getProperty(key), name -> {
+            if (source.containsKey(name) && !overridden.test(name))
+            {
+                return resolve(name, path);
+            }
+            return external.resolvePlaceholder(name);
+        });
+        path.remove(key);
+
+        resolved.put(key, value);
+        return value;
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+/**
+ * Listener notified when properties it subscribed to change, see
+ * {@link EnvironmentPropertyConfigurer#addChangeListener(String, PropertiesChangeListener)}. Listeners are called on
+ * the thread that reloaded the properties, after the new properties have been published.
+ * @author fgiust
+ * @version $Id$
+ */
+public interface PropertiesChangeListener
+{
+
+    /**
+     * Some of the subscribed properties changed.
+     * @param event event, listing only the changed keys matching the subscription
+     */
+    void propertiesChanged(PropertiesChangedEvent event);
+}
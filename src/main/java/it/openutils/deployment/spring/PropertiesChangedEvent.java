@@ -0,0 +1,108 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.util.Set;
+
+import org.springframework.context.ApplicationEvent;
+
+
+/**
+ * Published by {@link EnvironmentPropertyConfigurer} when a reload or a database refresh changes the values of some
+ * properties. The event is published to the application context, with all the changed keys, and to the listeners
+ * registered with {@link EnvironmentPropertyConfigurer#addChangeListener(String, PropertiesChangeListener)}, with the
+ * changed keys they subscribed to.
+ * @author fgiust
+ * @version $Id$
+ */
+public class PropertiesChangedEvent extends ApplicationEvent
+{
+
+    private static final long serialVersionUID = 1L;
+
+    private final Set<String> changedKeys;
+
+    private final transient PropertyStore previous;
+
+    private final transient PropertyStore current;
+
+    /**
+     * @param source configurer
+     * @param changedKeys added, modified and removed keys
+     * @param previous previous properties
+     * @param current new properties
+     */
+    public PropertiesChangedEvent(
+        EnvironmentPropertyConfigurer source,
+        Set<String> changedKeys,
+        PropertyStore previous,
+        PropertyStore current)
+    {
+        super(source);
+        this.changedKeys = changedKeys;
+        this.previous = previous;
+        this.current = current;
+    }
+
+    /**
+     * Returns the configurer that published this event.
+     * @return configurer
+     */
+    public EnvironmentPropertyConfigurer getConfigurer()
+    {
+        return (EnvironmentPropertyConfigurer) getSource();
+    }
+
+    /**
+     * Returns the keys that have been added, modified or removed.
+     * @return changed keys, unmodifiable
+     */
+    public Set<String> getChangedKeys()
+    {
+        return changedKeys;
+    }
+
+    /**
+     * Returns the value of a key before the change.
+     * @param key key
+     * @return previous value, <code>null</code> if the key has been added
+     */
+    public String getPreviousValue(String key)
+    {
+        return previous.get(key);
+    }
+
+    /**
+     * Returns the value of a key after the change.
+     * @param key key
+     * @return new value, <code>null</code> if the key has been removed
+     */
+    public String getValue(String key)
+    {
+        return current.get(key);
+    }
+
+    /**
+     * Returns the properties after the change.
+     * @return new properties
+     */
+    public PropertyStore getProperties()
+    {
+        return current;
+    }
+}
@@ -0,0 +1,476 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.springframework.util.ResourceUtils;
+
+
+/**
+ * Parser for the <code>.properties</code> format that works directly on a byte buffer: resources are read into a
+ * pooled buffer. Files are not memory-mapped, since on some platforms (e.g. Windows) a mapped file stays locked until
+ * the mapping is garbage collected, which would prevent editing or redeploying it. Compared to
+ * {@link java.util.Properties#load(InputStream)} there's no Reader in between and, since the {@link Handler} is asked
+ * whether each key is needed before its value is built, values of keys already defined in a layer with an higher
+ * precedence are skipped without creating any String.
+ * <p>
+ * The format is the same accepted by {@link java.util.Properties#load(java.io.Reader)}: comments, blank lines,
+ * <code>=</code>, <code>:</code> or whitespace separators, line continuations, <code>\t \n \r \f</code> and
+ * <code>&#92;uXXXX</code> escapes. ISO-8859-1 content is parsed without decoding, any other charset (e.g. UTF-8) is
+ * decoded once before parsing. As with a Reader, malformed or unmappable input is replaced with the replacement
+ * character of the charset.
+ * </p>
+ * @author fgiust
+ * @version $Id$
+ */
+public final class PropertiesParser
+{
+
+    /**
+     * Resources up to this size are read into a pooled buffer.
+     */
+    private static final int MAX_POOLED_BUFFER = 1024 * 1024;
+
+    private static final ThreadLocal<SoftReference<byte[]>> BUFFERS = new ThreadLocal<>();
+
+    private PropertiesParser()
+    {
+        // don't instantiate
+    }
+
+    /**
+     * Receives the properties parsed.
+     */
+    public interface Handler
+    {
+
+        /**
+         * Called for each key, before building its value.
+         * @param key property key
+         * @return <code>true</code> if the value is needed, <code>false</code> to skip it
+         */
+        boolean accept(String key);
+
+        /**
+         * Called for each accepted property.
+         * @param key property key
+         * @param value property value
+         */
+        void property(String key, String value);
+    }
+
+    /**
+     * Parses a resource.
+     * @param url resource URL, <code>file:</code> URLs are read directly from the filesystem
+     * @param charset charset, <code>null</code> for ISO-8859-1
+     * @param handler handler
+     * @return number of bytes parsed
+     * @throws IOException if the resource can't be read
+     * @throws IllegalArgumentException if the content contains a malformed <code>&#92;uXXXX</code> escape
+     */
+    public static long parse(URL url, Charset charset, Handler handler) throws IOException
+    {
+        if (ResourceUtils.isFileURL(url))
+        {
+            File file = ResourceUtils.getFile(url);
+            try (InputStream is = Files.newInputStream(file.toPath()))
+            {
+                return parse(is, charset, handler);
+            }
+        }
+
+        try (InputStream is = url.openStream())
+        {
+            return parse(is, charset, handler);
+        }
+    }
+
+    /**
+     * Parses a stream, reading it into a pooled buffer.
+     * @param is input stream, not closed
+     * @param charset charset, <code>null</code> for ISO-8859-1
+     * @param handler handler
+     * @return number of bytes parsed
+     * @throws IOException if the stream can't be read
+     * @throws IllegalArgumentException if the content contains a malformed <code>&#92;uXXXX</code> escape
+     */
+    public static long parse(InputStream is, Charset charset, Handler handler) throws IOException
+    {
+        SoftReference<byte[]> ref = BUFFERS.get();
+        byte[] buffer = ref != null ? ref.get() : null;
+        if (buffer == null)
+        {
+            buffer = new byte[8192];
+        }
+
+        int length = 0;
+        int read;
+        while ((read = is.read(buffer, length, buffer.length - length)) >= 0)
+        {
+            length += read;
+            if (length == buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+
+        if (buffer.length <= MAX_POOLED_BUFFER && (ref == null || ref.get() != buffer))
+        {
+            BUFFERS.set(new SoftReference<>(buffer));
+        }
+
+        parse(ByteBuffer.wrap(buffer, 0, length), charset, handler);
+        return length;
+    }
+
+    /**
+     * Parses a buffer, from its position to its limit.
+     * @param buffer content
+     * @param charset charset, <code>null</code> for ISO-8859-1
+     * @param handler handler
+     * @throws IllegalArgumentException if the content contains a malformed <code>&#92;uXXXX</code> escape
+     */
+    public static void parse(ByteBuffer buffer, Charset charset, Handler handler)
+    {
+        if (charset == null || StandardCharsets.ISO_8859_1.equals(charset))
+        {
+            parse(new Latin1Sequence(buffer), handler);
+        }
+        else
+        {
+            // same as InputStreamReader, used by Properties.load()
+            parse(charset.decode(buffer), handler);
+        }
+    }
+
+    /**
+     * Parses text in the <code>.properties</code> format.
+     * @param input content
+     * @param handler handler
+     * @throws IllegalArgumentException if the content contains a malformed <code>&#92;uXXXX</code> escape
+     */
+    public static void parse(CharSequence input, Handler handler)
+    {
+        new LineReader(input).parse(handler);
+    }
+
+    /**
+     * Splits the input in logical lines, following the same rules of <code>Properties.LineReader</code> in current
+     * JDKs, and each line in key and value.
+     */
+    private static final class LineReader
+    {
+
+        private final CharSequence input;
+
+        private final int limit;
+
+        private int offset;
+
+        private char[] line = new char[256];
+
+        private char[] convert = new char[256];
+
+        LineReader(CharSequence input)
+        {
+            this.input = input;
+            this.limit = input.length();
+        }
+
+        void parse(Handler handler)
+        {
+            int length;
+            while ((length = readLine()) >= 0)
+            {
+                int keyLength = 0;
+                int valueStart = length;
+                boolean hasSeparator = false;
+                boolean precedingBackslash = false;
+
+                while (keyLength < length)
+                {
+                    char c = line[keyLength];
+                    if ((c == '=' || c == ':') && !precedingBackslash)
+                    {
+                        valueStart = keyLength + 1;
+                        hasSeparator = true;
+                        break;
+                    }
+                    else if ((c == ' ' || c == '\t' || c == '\f') && !precedingBackslash)
+                    {
+                        valueStart = keyLength + 1;
+                        break;
+                    }
+                    precedingBackslash = c == '\\' && !precedingBackslash;
+                    keyLength++;
+                }
+
+                while (valueStart < length)
+                {
+                    char c = line[valueStart];
+                    if (c != ' ' && c != '\t' && c != '\f')
+                    {
+                        if (!hasSeparator && (c == '=' || c == ':'))
+                        {
+                            hasSeparator = true;
+                        }
+                        else
+                        {
+                            break;
+                        }
+                    }
+                    valueStart++;
+                }
+
+                String key = unescape(0, keyLength);
+                if (handler.accept(key))
+                {
+                    handler.property(key, unescape(valueStart, length - valueStart));
+                }
+            }
+        }
+
+        /**
+         * Reads the next logical line into <code>line</code>, skipping comments and blank lines and joining
+         * continuation lines.
+         * @return length of the line, -1 at the end of input
+         */
+        private int readLine()
+        {
+            int length = 0;
+            boolean skipWhiteSpace = true;
+            boolean appendedLineBegin = false;
+            boolean precedingBackslash = false;
+
+            while (true)
+            {
+                if (offset >= limit)
+                {
+                    if (length == 0)
+                    {
+                        return -1;
+                    }
+                    return precedingBackslash ? length - 1 : length;
+                }
+
+                char c = input.charAt(offset++);
+
+                if (skipWhiteSpace)
+                {
+                    if (c == ' ' || c == '\t' || c == '\f')
+                    {
+                        continue;
+                    }
+                    if (!appendedLineBegin && (c == '\r' || c == '\n'))
+                    {
+                        continue;
+                    }
+                    skipWhiteSpace = false;
+                    appendedLineBegin = false;
+                }
+
+                if (length == 0 && (c == '#' || c == '!'))
+                {
+                    // comment, skip the rest of the line
+                    while (offset < limit)
+                    {
+                        c = input.charAt(offset++);
+                        if (c == '\r' || c == '\n')
+                        {
+                            break;
+                        }
+                    }
+                    if (offset >= limit && c != '\r' && c != '\n')
+                    {
+                        return -1;
+                    }
+                    skipWhiteSpace = true;
+                    continue;
+                }
+
+                if (c != '\n' && c != '\r')
+                {
+                    if (length == line.length)
+                    {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[length++] = c;
+                    precedingBackslash = c == '\\' && !precedingBackslash;
+                }
+                else
+                {
+                    // end of a natural line
+                    if (length == 0)
+                    {
+                        skipWhiteSpace = true;
+                        continue;
+                    }
+                    if (offset >= limit)
+                    {
+                        return precedingBackslash ? length - 1 : length;
+                    }
+                    if (precedingBackslash)
+                    {
+                        // the backslash is not part of the line, which continues on the next one
+                        length--;
+                        skipWhiteSpace = true;
+                        appendedLineBegin = true;
+                        precedingBackslash = false;
+                        if (c == '\r' && input.charAt(offset) == '\n')
+                        {
+                            offset++;
+                        }
+                    }
+                    else
+                    {
+                        return length;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Converts escapes in a section of <code>line</code>.
+         */
+        private String unescape(int off, int len)
+        {
+            if (convert.length < len)
+            {
+                convert = new char[Math.max(len, convert.length * 2)];
+            }
+
+            char[] out = convert;
+            int outLen = 0;
+            int end = off + len;
+
+            while (off < end)
+            {
+                char c = line[off++];
+                if (c == '\\')
+                {
+                    if (off >= end)
+                    {
+                        // a lone trailing backslash
+                        break;
+                    }
+                    c = line[off++];
+                    if (c == 'u')
+                    {
+                        if (off + 4 > end)
+                        {
+                            throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                        }
+                        int value = 0;
+                        for (int j = 0; j < 4; j++)
+                        {
+                            int digit = Character.digit(line[off++], 16);
+                            if (digit < 0)
+                            {
+                                throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                            }
+                            value = (value << 4) + digit;
+                        }
+                        out[outLen++] = (char) value;
+                    }
+                    else
+                    {
+                        if (c == 't')
+                        {
+                            c = '\t';
+                        }
+                        else if (c == 'r')
+                        {
+                            c = '\r';
+                        }
+                        else if (c == 'n')
+                        {
+                            c = '\n';
+                        }
+                        else if (c == 'f')
+                        {
+                            c = '\f';
+                        }
+                        out[outLen++] = c;
+                    }
+                }
+                else
+                {
+                    out[outLen++] = c;
+                }
+            }
+            return new String(out, 0, outLen);
+        }
+    }
+
+    /**
+     * ISO-8859-1 view of a byte buffer, without decoding.
+     */
+    private static final class Latin1Sequence implements CharSequence
+    {
+
+        private final ByteBuffer buffer;
+
+        private final int base;
+
+        private final int length;
+
+        Latin1Sequence(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+            this.base = buffer.position();
+            this.length = buffer.remaining();
+        }
+
+        public int length()
+        {
+            return length;
+        }
+
+        public char charAt(int index)
+        {
+            return (char) (buffer.get(base + index) & 0xff);
+        }
+
+        public CharSequence subSequence(int start, int end)
+        {
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(base + start);
+            slice.limit(base + end);
+            return new Latin1Sequence(slice);
+        }
+
+        @Override
+        public String toString()
+        {
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(base);
+            slice.limit(base + length);
+            return StandardCharsets.ISO_8859_1.decode(slice).toString();
+        }
+    }
+}
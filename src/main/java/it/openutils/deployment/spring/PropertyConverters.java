@@ -0,0 +1,100 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+
+
+/**
+ * Shared converters used by the typed accessors of {@link EnvironmentPropertyConfigurer}. Converters are singletons,
+ * since {@link PropertyStore#getConverted(String, Function)} caches converted values by converter instance.
+ * @author fgiust
+ * @version $Id$
+ */
+final class PropertyConverters
+{
+
+    static final Function<String, Integer> INT = value -> Integer.valueOf(StringUtils.trim(value));
+
+    static final Function<String, Long> LONG = value -> Long.valueOf(StringUtils.trim(value));
+
+    static final Function<String, Boolean> BOOLEAN = value -> Boolean.valueOf(StringUtils.trim(value));
+
+    /**
+     * ISO-8601 durations (e.g. <code>PT30S</code>) or a plain number of milliseconds.
+     */
+    static final Function<String, Duration> DURATION = value -> {
+        String trimmed = StringUtils.trim(value);
+        if (StringUtils.isNumeric(trimmed))
+        {
+            return Duration.ofMillis(Long.parseLong(trimmed));
+        }
+        return Duration.parse(trimmed);
+    };
+
+    /**
+     * Comma separated values, trimmed, empty values are skipped.
+     */
+    static final Function<String, List<String>> LIST = value -> {
+        String[] tokens = StringUtils.split(value, ',');
+        List<String> list = new ArrayList<>(tokens.length);
+        for (String token : tokens)
+        {
+            String trimmed = StringUtils.trim(token);
+            if (!trimmed.isEmpty())
+            {
+                list.add(trimmed);
+            }
+        }
+        return Collections.unmodifiableList(list);
+    };
+
+    private static final ClassValue<Function<String, ? >> ENUMS = new ClassValue<Function<String, ? >>()
+    {
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes" })
+        protected Function<String, ? > computeValue(Class< ? > type)
+        {
+            return value -> Enum.valueOf((Class) type, StringUtils.trim(value));
+        }
+    };
+
+    private PropertyConverters()
+    {
+        // don't instantiate
+    }
+
+    /**
+     * Returns the shared converter for an enum type.
+     * @param <E> enum type
+     * @param type enum class
+     * @return converter
+     */
+    @SuppressWarnings("unchecked")
+    static <E extends Enum<E>> Function<String, E> forEnum(Class<E> type)
+    {
+        return (Function<String, E>) ENUMS.get(type);
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Watches a set of files and runs a callback, on a single daemon thread, when any of them is created, modified or
+ * deleted. Bursts of changes are debounced: the callback runs once no further change has been detected for
+ * <code>delay</code> milliseconds.
+ * <p>
+ * Changes are detected using a {@link WatchService} on the parent directories, falling back to polling size and last
+ * modified date of each file when the watch service is not available, or when polling is forced (e.g. for network
+ * filesystems, where watch services are not reliable). Files in directories that don't exist yet are only detected
+ * when polling.
+ * </p>
+ * @author fgiust
+ * @version $Id$
+ */
+public class PropertyFileWatcher
+{
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(PropertyFileWatcher.class);
+
+    private final Set<File> files;
+
+    private final long delay;
+
+    private final long pollInterval;
+
+    private final boolean polling;
+
+    private final Runnable callback;
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    private WatchService watchService;
+
+    /**
+     * @param files files to watch
+     * @param delay debounce delay in milliseconds
+     * @param pollInterval poll interval in milliseconds, when polling
+     * @param polling force polling instead of using a {@link WatchService}
+     * @param callback callback run after a change
+     */
+    public PropertyFileWatcher(File[] files, long delay, long pollInterval, boolean polling, Runnable callback)
+    {
+        this.files = new LinkedHashSet<>();
+        for (File file : files)
+        {
+            this.files.add(file.getAbsoluteFile());
+        }
+        this.delay = delay;
+        this.pollInterval = pollInterval;
+        this.polling = polling;
+        this.callback = callback;
+    }
+
+    /**
+     * Starts watching.
+     */
+    public synchronized void start()
+    {
+        if (running)
+        {
+            return;
+        }
+
+        if (!polling)
+        {
+            watchService = register();
+        }
+
+        running = true;
+        thread = new Thread(watchService != null ? this::watch : this::poll, "environment-properties-watcher");
+        thread.setDaemon(true);
+        thread.start();
+
+        log.debug("Watching {} for changes ({})", files, watchService != null ? "watch service" : "polling");
+    }
+
+    /**
+     * Stops watching.
+     */
+    public synchronized void stop()
+    {
+        running = false;
+        if (watchService != null)
+        {
+            try
+            {
+                watchService.close();
+            }
+            catch (IOException e)
+            {
+                // ignore
+            }
+            watchService = null;
+        }
+        if (thread != null)
+        {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private WatchService register()
+    {
+        Set<Path> dirs = new HashSet<>();
+        for (File file : files)
+        {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null && dir.isDirectory())
+            {
+                dirs.add(dir.toPath());
+            }
+        }
+
+        WatchService service = null;
+        try
+        {
+            service = FileSystems.getDefault().newWatchService();
+            for (Path dir : dirs)
+            {
+                dir.register(
+                    service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            }
+            return service;
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            log.info("Watch service not available ({}), falling back to polling", e.getMessage());
+            if (service != null)
+            {
+                try
+                {
+                    service.close();
+                }
+                catch (IOException e1)
+                {
+                    // ignore
+                }
+            }
+            return null;
+        }
+    }
+
+    private void watch()
+    {
+        WatchService service = watchService;
+        long lastChange = 0;
+
+        while (running)
+        {
+            try
+            {
+                WatchKey key = lastChange > 0
+                    ? service.poll(delay, TimeUnit.MILLISECONDS)
+                    : service.poll(pollInterval, TimeUnit.MILLISECONDS);
+
+                if (key != null)
+                {
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent< ? > event : key.pollEvents())
+                    {
+                        Object context = event.context();
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || context instanceof Path
+                            && files.contains(dir.resolve((Path) context).toFile().getAbsoluteFile()))
+                        {
+                            lastChange = System.currentTimeMillis();
+                        }
+                    }
+                    key.reset();
+                }
+
+                if (lastChange > 0 && System.currentTimeMillis() - lastChange >= delay)
+                {
+                    lastChange = 0;
+                    fire();
+                }
+            }
+            catch (InterruptedException | ClosedWatchServiceException e)
+            {
+                return;
+            }
+        }
+    }
+
+    private void poll()
+    {
+        Map<File, String> state = state();
+        long lastChange = 0;
+
+        while (running)
+        {
+            try
+            {
+                Thread.sleep(lastChange > 0 ? Math.min(delay, pollInterval) : pollInterval);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+
+            Map<File, String> current = state();
+            if (!current.equals(state))
+            {
+                state = current;
+                lastChange = System.currentTimeMillis();
+            }
+            else if (lastChange > 0 && System.currentTimeMillis() - lastChange >= delay)
+            {
+                lastChange = 0;
+                fire();
+            }
+        }
+    }
+
+    private Map<File, String> state()
+    {
+        Map<File, String> state = new HashMap<>();
+        for (File file : files)
+        {
+            state.put(file, file.exists() ? file.length() + "/" + file.lastModified() : "-");
+        }
+        return state;
+    }
+
+    private void fire()
+    {
+        try
+        {
+            callback.run();
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Error reloading properties: " + e.getMessage(), e);
+        }
+    }
+}
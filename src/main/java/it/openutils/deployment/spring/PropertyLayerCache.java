@@ -0,0 +1,138 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+
+/**
+ * Cache of parsed property files, shared by all the {@link EnvironmentPropertyConfigurer} instances loaded by the same
+ * classloader: when this library is installed in the shared library folder of the container, identical resources are
+ * parsed only once per JVM, also across webapps.
+ * <p>
+ * Entries are keyed by the source file (the file itself, or the jar that contains it) together with its size and last
+ * modified date, so a changed file is never served from the cache. Layers are held through soft references and the
+ * number of entries is bounded (<code>deployment.layercache.size</code> system property, default 128), evicting the
+ * least recently used. Only immutable JDK objects are cached, so webapp classloaders are never retained: the resource
+ * is kept as a URL string, since a <code>URL</code> may reference a stream handler loaded by a webapp.
+ * </p>
+ * @author fgiust
+ * @version $Id$
+ */
+final class PropertyLayerCache
+{
+
+    /**
+     * System property with the maximum number of cached layers.
+     */
+    static final String SIZE_PROPERTY = "deployment.layercache.size";
+
+    private static final int MAX_ENTRIES = NumberUtils.toInt(System.getProperty(SIZE_PROPERTY), 128);
+
+    private static final Map<String, SoftReference<Layer>> LAYERS = new LinkedHashMap<String, SoftReference<Layer>>(
+        16,
+        0.75f,
+        true)
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SoftReference<Layer>> eldest)
+        {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private PropertyLayerCache()
+    {
+        // don't instantiate
+    }
+
+    /**
+     * Returns a cached layer.
+     * @param key cache key
+     * @return cached layer, <code>null</code> if not cached or collected
+     */
+    static Layer get(String key)
+    {
+        synchronized (LAYERS)
+        {
+            SoftReference<Layer> reference = LAYERS.get(key);
+            if (reference == null)
+            {
+                return null;
+            }
+            Layer layer = reference.get();
+            if (layer == null)
+            {
+                LAYERS.remove(key);
+            }
+            return layer;
+        }
+    }
+
+    /**
+     * Adds a layer to the cache.
+     * @param key cache key
+     * @param url URL the layer has been loaded from
+     * @param store parsed properties, must not be modified anymore
+     */
+    static void put(String key, String url, PropertyStore store)
+    {
+        synchronized (LAYERS)
+        {
+            LAYERS.put(key, new SoftReference<>(new Layer(url, store)));
+        }
+    }
+
+    /**
+     * Removes all the cached layers.
+     */
+    static void clear()
+    {
+        synchronized (LAYERS)
+        {
+            LAYERS.clear();
+        }
+    }
+
+    /**
+     * A parsed property file.
+     */
+    static final class Layer
+    {
+
+        /**
+         * External form of the resource URL.
+         */
+        final String url;
+
+        final PropertyStore store;
+
+        Layer(String url, PropertyStore store)
+        {
+            this.url = url;
+            this.store = store;
+        }
+    }
+}
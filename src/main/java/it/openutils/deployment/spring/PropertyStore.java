@@ -0,0 +1,544 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+
+/**
+ * Immutable, read-optimized map of String keys and values, built once for each load of the configuration. Entries are
+ * kept in an open-addressing table with precomputed hashes: lookups take no locks and allocate nothing, so this store
+ * can be safely read from any number of threads.
+ * <p>
+ * {@link #asProperties()} exposes the same entries as a read-only {@link Properties} object, for the existing Spring
+ * integration.
+ * </p>
+ * <p>
+ * A store can also be a chain of other stores, see {@link #layered(List)}: lookups check each layer in order of
+ * precedence, so each layer is kept as loaded and can be shared, and a flattened copy is only built once if needed.
+ * </p>
+ * @author fgiust
+ * @version $Id$
+ */
+public final class PropertyStore
+{
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /**
+     * An empty store.
+     */
+    public static final PropertyStore EMPTY = of(new Properties());
+
+    private final String[] keys;
+
+    private final String[] values;
+
+    private final int[] hashes;
+
+    private final int mask;
+
+    private final int size;
+
+    private final long version;
+
+    /**
+     * Layers, highest precedence first. <code>null</code> for flat stores.
+     */
+    private final PropertyStore[] layers;
+
+    /**
+     * Flattened copy of the layers, built on first use.
+     */
+    private volatile PropertyStore flattened;
+
+    private volatile Properties properties;
+
+    /**
+     * Values converted by {@link #getConverted(String, Function)}, by converter and key.
+     */
+    private final ConcurrentMap<Function<String, ? >, ConcurrentMap<String, Object>> converted;
+
+    private PropertyStore(Map< ? , ? > source)
+    {
+        this.converted = new ConcurrentHashMap<>(4);
+        int capacity = Integer.highestOneBit(Math.max(4, source.size() * 2 - 1)) << 1;
+        this.keys = new String[capacity];
+        this.values = new String[capacity];
+        this.hashes = new int[capacity];
+        this.mask = capacity - 1;
+
+        int count = 0;
+        for (Map.Entry< ? , ? > entry : source.entrySet())
+        {
+            if (entry.getKey() instanceof String && entry.getValue() instanceof String)
+            {
+                if (insert((String) entry.getKey(), (String) entry.getValue()))
+                {
+                    count++;
+                }
+            }
+        }
+        this.size = count;
+        this.layers = null;
+        this.version = VERSIONS.incrementAndGet();
+    }
+
+    private PropertyStore(PropertyStore[] layers)
+    {
+        this.converted = new ConcurrentHashMap<>(4);
+        this.keys = null;
+        this.values = null;
+        this.hashes = null;
+        this.mask = 0;
+        this.size = -1;
+        this.layers = layers;
+        this.version = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Builds a store from a map, usually a {@link Properties} object. Non-string keys and values are ignored, as in
+     * {@link Properties#getProperty(String)}. Defaults of the properties object are ignored.
+     * @param source source map
+     * @return new store
+     */
+    public static PropertyStore of(Map< ? , ? > source)
+    {
+        return new PropertyStore(source);
+    }
+
+    /**
+     * Builds a store made of other stores, without copying them. Lookups return the value from the first layer that
+     * defines a key.
+     * @param layers layers, highest precedence first
+     * @return new store
+     */
+    public static PropertyStore layered(List<PropertyStore> layers)
+    {
+        return new PropertyStore(layers.toArray(new PropertyStore[layers.size()]));
+    }
+
+    /**
+     * Returns the layers of this store.
+     * @return layers, highest precedence first. A flat store is its only layer.
+     */
+    public List<PropertyStore> getLayers()
+    {
+        if (layers == null)
+        {
+            return Collections.singletonList(this);
+        }
+        return Collections.unmodifiableList(Arrays.asList(layers));
+    }
+
+    /**
+     * Returns the value for a key.
+     * @param key key
+     * @return value, or <code>null</code> if not found
+     */
+    public String get(String key)
+    {
+        if (layers != null)
+        {
+            for (PropertyStore layer : layers)
+            {
+                String value = layer.get(key);
+                if (value != null)
+                {
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        int hash = spread(key.hashCode());
+        int index = hash & mask;
+        String candidate;
+        while ((candidate = keys[index]) != null)
+        {
+            if (hashes[index] == hash && (candidate == key || candidate.equals(key)))
+            {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value for a key, converted using the given function. The converted value is cached in this store,
+     * so each key is converted only once for each converter: converters should be shared instances. Since stores are
+     * immutable the cache never needs to be invalidated, a new configuration gets a new store.
+     * @param <T> converted type
+     * @param key key
+     * @param converter converter, called with the non null value of the key
+     * @return converted value, <code>null</code> if the key is not defined
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getConverted(String key, Function<String, T> converter)
+    {
+        ConcurrentMap<String, Object> values = converted.get(converter);
+        if (values != null)
+        {
+            Object value = values.get(key);
+            if (value != null)
+            {
+                return (T) value;
+            }
+        }
+
+        String value = get(key);
+        if (value == null)
+        {
+            return null;
+        }
+
+        T result = converter.apply(value);
+        if (result != null)
+        {
+            if (values == null)
+            {
+                values = converted.computeIfAbsent(converter, c -> new ConcurrentHashMap<>());
+            }
+            values.putIfAbsent(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a key is defined.
+     * @param key key
+     * @return <code>true</code> if the store contains the given key
+     */
+    public boolean containsKey(String key)
+    {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the number of entries.
+     * @return number of entries
+     */
+    public int size()
+    {
+        if (layers != null)
+        {
+            return flatten().size;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the version of this store. Each store gets a new, increasing version when built.
+     * @return version
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Compares this store with a previous one.
+     * @param previous previous store
+     * @return keys added, modified or removed since <code>previous</code>
+     */
+    public Set<String> changedKeys(final PropertyStore previous)
+    {
+        final Set<String> changed = new HashSet<>();
+        forEach((key, value) -> {
+            if (!value.equals(previous.get(key)))
+            {
+                changed.add(key);
+            }
+        });
+        previous.forEach((key, value) -> {
+            if (get(key) == null)
+            {
+                changed.add(key);
+            }
+        });
+        return changed;
+    }
+
+    /**
+     * Calls the given action for each entry.
+     * @param action action
+     */
+    public void forEach(BiConsumer<String, String> action)
+    {
+        if (layers != null)
+        {
+            flatten().forEach(action);
+            return;
+        }
+        for (int j = 0; j < keys.length; j++)
+        {
+            if (keys[j] != null)
+            {
+                action.accept(keys[j], values[j]);
+            }
+        }
+    }
+
+    /**
+     * Returns the entries of this store as a {@link Properties} object. The object is created on first use and then
+     * shared, so it can't be modified: any change throws an {@link UnsupportedOperationException}. Copy it to get
+     * modifiable properties.
+     * @return unmodifiable properties
+     */
+    public Properties asProperties()
+    {
+        if (layers != null)
+        {
+            return flatten().asProperties();
+        }
+        Properties result = properties;
+        if (result == null)
+        {
+            result = new UnmodifiableProperties(this);
+            properties = result;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return asProperties().toString();
+    }
+
+    /**
+     * Merges the layers into a single flat store, once.
+     * @return flat store
+     */
+    private PropertyStore flatten()
+    {
+        PropertyStore result = flattened;
+        if (result == null)
+        {
+            final Properties merged = new Properties();
+            for (int j = layers.length - 1; j >= 0; j--)
+            {
+                layers[j].forEach(merged::put);
+            }
+            result = of(merged);
+            flattened = result;
+        }
+        return result;
+    }
+
+    private boolean insert(String key, String value)
+    {
+        int hash = spread(key.hashCode());
+        int index = hash & mask;
+        while (keys[index] != null)
+        {
+            if (hashes[index] == hash && keys[index].equals(key))
+            {
+                values[index] = value;
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        hashes[index] = hash;
+        return true;
+    }
+
+    private static int spread(int hash)
+    {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Read-only {@link Properties}, filled once from a store. All the methods that would modify the table throw an
+     * {@link UnsupportedOperationException}, including those of the key, value and entry views.
+     */
+    private static final class UnmodifiableProperties extends Properties
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient Map<Object, Object> view;
+
+        UnmodifiableProperties(PropertyStore store)
+        {
+            super();
+            store.forEach(super::put);
+        }
+
+        @Override
+        public synchronized Object put(Object key, Object value)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized void putAll(Map< ? , ? > t)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized Object remove(Object key)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized boolean remove(Object key, Object value)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized void clear()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized Object putIfAbsent(Object key, Object value)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized boolean replace(Object key, Object oldValue, Object newValue)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized Object replace(Object key, Object value)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized void replaceAll(BiFunction< ? super Object, ? super Object, ? > function)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized Object compute(
+            Object key,
+            BiFunction< ? super Object, ? super Object, ? > remappingFunction)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized Object computeIfAbsent(Object key, Function< ? super Object, ? > mappingFunction)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized Object computeIfPresent(
+            Object key,
+            BiFunction< ? super Object, ? super Object, ? > remappingFunction)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized Object merge(
+            Object key,
+            Object value,
+            BiFunction< ? super Object, ? super Object, ? > remappingFunction)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<Object> keySet()
+        {
+            return view().keySet();
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet()
+        {
+            return view().entrySet();
+        }
+
+        @Override
+        public Collection<Object> values()
+        {
+            return view().values();
+        }
+
+        private Map<Object, Object> view()
+        {
+            Map<Object, Object> result = view;
+            if (result == null)
+            {
+                // read-only views, also entries can't be modified
+                result = Collections.unmodifiableMap(new AbstractMap<Object, Object>()
+                {
+
+                    @Override
+                    public Set<Map.Entry<Object, Object>> entrySet()
+                    {
+                        return UnmodifiableProperties.super.entrySet();
+                    }
+
+                    @Override
+                    public Object get(Object key)
+                    {
+                        return UnmodifiableProperties.this.get(key);
+                    }
+
+                    @Override
+                    public boolean containsKey(Object key)
+                    {
+                        return UnmodifiableProperties.this.containsKey(key);
+                    }
+
+                    @Override
+                    public int size()
+                    {
+                        return UnmodifiableProperties.this.size();
+                    }
+                });
+                view = result;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.log4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.AbstractConfiguration;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.ConfigurationSource;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.xml.XmlConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Checks that {@link CachedXmlConfiguration} builds the same configuration as Log4j's {@link XmlConfiguration}.
+ * @author fgiust
+ * @version $Id$
+ */
+public class CachedXmlConfigurationTest
+{
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<Configuration status=\"warn\" name=\"test\" shutdownHook=\"disable\">\n"
+        + "  <Properties>\n"
+        + "    <Property name=\"pattern\">%d %-5p %c - %m%n</Property>\n"
+        + "    <Property name=\"level\">info</Property>\n"
+        + "  </Properties>\n"
+        + "  <Appenders>\n"
+        + "    <Console name=\"console\" target=\"SYSTEM_OUT\">\n"
+        + "      <PatternLayout pattern=\"${pattern}\" />\n"
+        + "      <ThresholdFilter level=\"warn\" onMatch=\"ACCEPT\" onMismatch=\"DENY\" />\n"
+        + "    </Console>\n"
+        + "    <Console name=\"errors\" target=\"SYSTEM_ERR\">\n"
+        + "      <PatternLayout>\n"
+        + "        <Pattern>[${level}] %m%n</Pattern>\n"
+        + "      </PatternLayout>\n"
+        + "    </Console>\n"
+        + "  </Appenders>\n"
+        + "  <Loggers>\n"
+        + "    <Logger name=\"it.openutils\" level=\"debug\" additivity=\"false\">\n"
+        + "      <AppenderRef ref=\"console\" />\n"
+        + "      <AppenderRef ref=\"errors\" level=\"error\" />\n"
+        + "    </Logger>\n"
+        + "    <Logger name=\"org.springframework\" level=\"${level}\">\n"
+        + "      <ThresholdFilter level=\"error\" />\n"
+        + "    </Logger>\n"
+        + "    <Root level=\"warn\">\n"
+        + "      <AppenderRef ref=\"console\" />\n"
+        + "    </Root>\n"
+        + "  </Loggers>\n"
+        + "</Configuration>\n";
+
+    private File xmlFile;
+
+    private File cacheFile;
+
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        Assert.assertTrue("Tests must run with Log4j " + CachedXmlConfiguration.LOG4J_VERSION, CachedXmlConfiguration
+            .isSupportedVersion());
+        xmlFile = File.createTempFile("log4j2", ".xml");
+        cacheFile = File.createTempFile("log4j2", ".cache");
+        cacheFile.delete();
+        content = XML.getBytes(StandardCharsets.UTF_8);
+        Files.write(xmlFile.toPath(), content);
+    }
+
+    @After
+    public void tearDown()
+    {
+        xmlFile.delete();
+        cacheFile.delete();
+    }
+
+    @Test
+    public void testNodeTree()
+    {
+        XmlConfiguration expected = xmlConfiguration();
+        expected.setup();
+
+        // parsed, then read from the cache
+        for (int j = 0; j < 2; j++)
+        {
+            CachedXmlConfiguration cached = load();
+            cached.setup();
+            assertNode(expected.getRootNode(), cached.getRootNode());
+        }
+        Assert.assertTrue(cacheFile.isFile());
+    }
+
+    @Test
+    public void testConfiguration()
+    {
+        XmlConfiguration expected = xmlConfiguration();
+        expected.initialize();
+
+        for (int j = 0; j < 2; j++)
+        {
+            CachedXmlConfiguration cached = load();
+            cached.initialize();
+            assertConfiguration(expected, cached);
+        }
+    }
+
+    private XmlConfiguration xmlConfiguration()
+    {
+        return new XmlConfiguration(null, new ConfigurationSource(new ByteArrayInputStream(content), xmlFile));
+    }
+
+    private CachedXmlConfiguration load()
+    {
+        CachedXmlConfiguration configuration = CachedXmlConfiguration.load(
+            xmlFile,
+            content,
+            cacheFile,
+            "server",
+            "/webapp");
+        Assert.assertNotNull(configuration);
+        return configuration;
+    }
+
+    private void assertNode(Node expected, Node actual)
+    {
+        String path = expected.toString();
+        Assert.assertEquals(path, expected.getName(), actual.getName());
+        Assert.assertEquals(path, expected.getAttributes(), actual.getAttributes());
+        Assert.assertEquals(path, expected.getValue(), actual.getValue());
+        Assert.assertEquals(path, expected.getType(), actual.getType());
+        Assert.assertEquals(path, expected.getChildren().size(), actual.getChildren().size());
+        for (int j = 0; j < expected.getChildren().size(); j++)
+        {
+            assertNode(expected.getChildren().get(j), actual.getChildren().get(j));
+        }
+    }
+
+    private void assertConfiguration(AbstractConfiguration expected, AbstractConfiguration actual)
+    {
+        Assert.assertEquals(expected.getName(), actual.getName());
+        Assert.assertEquals(expected.isShutdownHookEnabled(), actual.isShutdownHookEnabled());
+        Assert.assertEquals(expected.getProperties(), actual.getProperties());
+
+        Map<String, Appender> appenders = expected.getAppenders();
+        Assert.assertEquals(appenders.keySet(), actual.getAppenders().keySet());
+        for (Appender appender : appenders.values())
+        {
+            Appender other = actual.getAppender(appender.getName());
+            Assert.assertEquals(appender.getClass(), other.getClass());
+            Assert.assertEquals(appender.getLayout().toString(), other.getLayout().toString());
+            Assert.assertEquals(appender.getLayout().getContentFormat(), other.getLayout().getContentFormat());
+            assertFilter(((AbstractAppender) appender).getFilter(), ((AbstractAppender) other).getFilter());
+        }
+
+        Map<String, LoggerConfig> loggers = expected.getLoggers();
+        Assert.assertEquals(loggers.keySet(), actual.getLoggers().keySet());
+        for (LoggerConfig logger : loggers.values())
+        {
+            LoggerConfig other = actual.getLoggers().get(logger.getName());
+            Assert.assertEquals(logger.getName(), logger.getLevel(), other.getLevel());
+            Assert.assertEquals(logger.getName(), logger.isAdditive(), other.isAdditive());
+            Assert.assertEquals(logger.getName(), refs(logger.getAppenderRefs()), refs(other.getAppenderRefs()));
+            Assert.assertEquals(logger.getName(), logger.getAppenders().keySet(), other.getAppenders().keySet());
+            assertFilter(logger.getFilter(), other.getFilter());
+        }
+        Assert.assertEquals(expected.getRootLogger().getLevel(), actual.getRootLogger().getLevel());
+        Assert.assertEquals(
+            refs(expected.getRootLogger().getAppenderRefs()),
+            refs(actual.getRootLogger().getAppenderRefs()));
+    }
+
+    private void assertFilter(Filter expected, Filter actual)
+    {
+        if (expected == null)
+        {
+            Assert.assertNull(actual);
+            return;
+        }
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(expected.getClass(), actual.getClass());
+        Assert.assertEquals(expected.toString(), actual.toString());
+        Assert.assertEquals(expected.getOnMatch(), actual.getOnMatch());
+        Assert.assertEquals(expected.getOnMismatch(), actual.getOnMismatch());
+    }
+
+    private List<String> refs(List<AppenderRef> refs)
+    {
+        List<String> result = new ArrayList<>();
+        for (AppenderRef ref : refs)
+        {
+            result.add(ref.getRef() + ":" + ref.getLevel() + ":" + ref.getFilter());
+        }
+        return result;
+    }
+}
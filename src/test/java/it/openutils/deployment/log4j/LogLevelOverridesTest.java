@@ -0,0 +1,156 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.log4j;
+
+import it.openutils.deployment.spring.EnvironmentPropertyConfigurer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+
+/**
+ * Tests for {@link LogLevelOverrides} on the running Log4j configuration.
+ * @author fgiust
+ * @version $Id$
+ */
+public class LogLevelOverridesTest
+{
+
+    private static final String CONFIGURED = "it.openutils.test.configured";
+
+    private static final String ADDED = "it.openutils.test.added";
+
+    private LoggerContext loggerContext;
+
+    private File file;
+
+    private EnvironmentPropertyConfigurer configurer;
+
+    private LogLevelOverrides overrides;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        loggerContext = (LoggerContext) LogManager.getContext(false);
+
+        // as if defined in log4j2.xml
+        LoggerConfig configured = new LoggerConfig(CONFIGURED, Level.INFO, true);
+        configured.start();
+        loggerContext.getConfiguration().addLogger(CONFIGURED, configured);
+        loggerContext.updateLoggers();
+
+        file = File.createTempFile("levels", ".properties");
+        configurer = new EnvironmentPropertyConfigurer();
+        configurer.setFileLocation("file:" + file.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (overrides != null)
+        {
+            overrides.destroy();
+        }
+        loggerContext.getConfiguration().removeLogger(CONFIGURED);
+        loggerContext.updateLoggers();
+        file.delete();
+    }
+
+    @Test
+    public void testOverrides() throws IOException
+    {
+        write("log4j.level." + CONFIGURED + "=DEBUG\nlog4j.level." + ADDED + "=TRACE\nother=1\n");
+        start();
+
+        Assert.assertEquals(Level.DEBUG, level(CONFIGURED));
+        Assert.assertEquals(Level.TRACE, level(ADDED));
+        LoggerConfig added = loggerConfig(ADDED);
+        Assert.assertNotNull(added);
+        Assert.assertTrue("Added logger not started", added.isStarted());
+
+        // changed and removed keys
+        write("log4j.level." + CONFIGURED + "=WARN\n");
+        configurer.reload();
+        Assert.assertEquals(Level.WARN, level(CONFIGURED));
+        Assert.assertNull(loggerConfig(ADDED));
+        Assert.assertTrue(added.isStopped());
+        // inherited again
+        Assert.assertEquals(loggerContext.getConfiguration().getLoggerConfig(ADDED).getLevel(), level(ADDED));
+
+        // the level from the configuration is restored
+        write("other=1\n");
+        configurer.reload();
+        Assert.assertEquals(Level.INFO, level(CONFIGURED));
+    }
+
+    @Test
+    public void testInvalidLevelIgnored() throws IOException
+    {
+        write("log4j.level." + CONFIGURED + "=LOUD\n");
+        start();
+        Assert.assertEquals(Level.INFO, level(CONFIGURED));
+    }
+
+    @Test
+    public void testDestroyRestores() throws IOException
+    {
+        write("log4j.level." + CONFIGURED + "=ERROR\nlog4j.level." + ADDED + "=DEBUG\n");
+        start();
+        Assert.assertEquals(Level.ERROR, level(CONFIGURED));
+
+        overrides.destroy();
+        overrides = null;
+        Assert.assertEquals(Level.INFO, level(CONFIGURED));
+        Assert.assertNull(loggerConfig(ADDED));
+    }
+
+    private void start()
+    {
+        configurer.postProcessBeanFactory(new DefaultListableBeanFactory());
+        overrides = new LogLevelOverrides();
+        overrides.setConfigurer(configurer);
+        overrides.afterPropertiesSet();
+    }
+
+    private void write(String content) throws IOException
+    {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private Level level(String name)
+    {
+        return loggerContext.getLogger(name).getLevel();
+    }
+
+    private LoggerConfig loggerConfig(String name)
+    {
+        return loggerContext.getConfiguration().getLoggers().get(name);
+    }
+}
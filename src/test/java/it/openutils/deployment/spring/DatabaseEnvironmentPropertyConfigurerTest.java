@@ -0,0 +1,364 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import javax.servlet.ServletContext;
+
+import org.junit.Test;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+
+
+/**
+ * Tests for {@link DatabaseEnvironmentPropertyConfigurer} against an in-memory H2 database.
+ * @author fgiust
+ * @version $Id$
+ */
+public class DatabaseEnvironmentPropertyConfigurerTest
+{
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private DriverManagerDataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private File snapshot;
+
+    private GenericApplicationContext context;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:config"
+            + DATABASES.incrementAndGet()
+            + ";DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE config (name VARCHAR(255) PRIMARY KEY, val VARCHAR(255), "
+            + "version INT, deleted BOOLEAN DEFAULT FALSE)");
+        jdbcTemplate.update("INSERT INTO config (name, val, version) VALUES ('a', '1', 1)");
+        jdbcTemplate.update("INSERT INTO config (name, val, version) VALUES ('b', '2', 1)");
+        snapshot = File.createTempFile("database", ".snapshot");
+        snapshot.delete();
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (context != null)
+        {
+            context.close();
+        }
+        jdbcTemplate.execute("SHUTDOWN");
+        snapshot.delete();
+    }
+
+    @Test
+    public void testLoad()
+    {
+        DatabaseEnvironmentPropertyConfigurer configurer = start(configurer());
+        Assert.assertEquals("1", configurer.getProperty("a"));
+        Assert.assertEquals("2", configurer.getProperty("b"));
+    }
+
+    @Test
+    public void testFreshSnapshotUsedBeforeDatabase()
+    {
+        writeSnapshot();
+        jdbcTemplate.update("UPDATE config SET val = 'changed' WHERE name = 'a'");
+        jdbcTemplate.execute("ALTER TABLE config RENAME TO unavailable");
+
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setDatabaseSnapshotFile(snapshot);
+        start(configurer);
+        Assert.assertEquals("1", configurer.getProperty("a"));
+    }
+
+    @Test
+    public void testStaleSnapshotWaitsForDatabase()
+    {
+        writeSnapshot();
+        jdbcTemplate.update("UPDATE config SET val = 'changed' WHERE name = 'a'");
+        Assert.assertTrue(snapshot.setLastModified(System.currentTimeMillis() - 60000L));
+
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setDatabaseSnapshotFile(snapshot);
+        configurer.setMaxSnapshotAge(1000L);
+        start(configurer);
+        Assert.assertEquals("changed", configurer.getProperty("a"));
+    }
+
+    @Test
+    public void testStaleSnapshotUsedWhenDatabaseIsDown()
+    {
+        writeSnapshot();
+        jdbcTemplate.execute("ALTER TABLE config RENAME TO unavailable");
+        Assert.assertTrue(snapshot.setLastModified(System.currentTimeMillis() - 60000L));
+
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setDatabaseSnapshotFile(snapshot);
+        configurer.setMaxSnapshotAge(1000L);
+        start(configurer);
+        Assert.assertEquals("1", configurer.getProperty("a"));
+        Assert.assertEquals("2", configurer.getProperty("b"));
+    }
+
+    @Test
+    public void testReconcileFiresChangeEvents() throws InterruptedException
+    {
+        writeSnapshot();
+        jdbcTemplate.update("UPDATE config SET val = 'changed' WHERE name = 'a'");
+
+        final CountDownLatch changed = new CountDownLatch(1);
+        final AtomicReference<PropertiesChangedEvent> received = new AtomicReference<>();
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setDatabaseSnapshotFile(snapshot);
+        configurer.addChangeListener("*", event -> {
+            received.set(event);
+            changed.countDown();
+        });
+        start(configurer);
+
+        Assert.assertTrue("No change event", changed.await(10, TimeUnit.SECONDS));
+        Set<String> keys = received.get().getChangedKeys();
+        Assert.assertEquals(1, keys.size());
+        Assert.assertTrue(keys.contains("a"));
+        Assert.assertEquals("1", received.get().getPreviousValue("a"));
+        Assert.assertEquals("changed", received.get().getValue("a"));
+        Assert.assertEquals("changed", configurer.getProperty("a"));
+    }
+
+    @Test
+    public void testDeltaRefresh()
+    {
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setVersionColumn("version");
+        configurer.setDeletedColumn("deleted");
+        configurer.setFullRefreshInterval(0);
+        start(configurer);
+
+        jdbcTemplate.update("UPDATE config SET val = '3', version = 2 WHERE name = 'a'");
+        jdbcTemplate.update("INSERT INTO config (name, val, version) VALUES ('c', '4', 2)");
+        // not fetched by an incremental refresh, the version is unchanged
+        jdbcTemplate.update("UPDATE config SET val = 'unseen' WHERE name = 'b'");
+        configurer.refresh();
+
+        Assert.assertEquals("3", configurer.getProperty("a"));
+        Assert.assertEquals("2", configurer.getProperty("b"));
+        Assert.assertEquals("4", configurer.getProperty("c"));
+    }
+
+    @Test
+    public void testDeltaRefreshTombstones()
+    {
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setVersionColumn("version");
+        configurer.setDeletedColumn("deleted");
+        configurer.setFullRefreshInterval(0);
+        start(configurer);
+
+        jdbcTemplate.update("UPDATE config SET deleted = TRUE, version = 2 WHERE name = 'b'");
+        configurer.refresh();
+
+        Assert.assertEquals("1", configurer.getProperty("a"));
+        Assert.assertNull(configurer.getProperty("b"));
+    }
+
+    @Test
+    public void testProbeSkipsUnchanged()
+    {
+        ConfigurationStats stats = new ConfigurationStats();
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setProbeQuery("SELECT MAX(version), COUNT(*) FROM config");
+        configurer.setMetrics(stats);
+        start(configurer);
+
+        jdbcTemplate.update("UPDATE config SET val = 'unseen' WHERE name = 'a'");
+        configurer.refresh();
+        Assert.assertEquals("1", configurer.getProperty("a"));
+        Assert.assertEquals(1, stats.getDatabaseProbeSkips());
+
+        jdbcTemplate.update("UPDATE config SET val = '3', version = 2 WHERE name = 'a'");
+        configurer.refresh();
+        Assert.assertEquals("3", configurer.getProperty("a"));
+    }
+
+    @Test
+    public void testUnchangedRefreshTouchesSnapshot() throws IOException
+    {
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setDatabaseSnapshotFile(snapshot);
+        configurer.setProbeQuery("SELECT MAX(version), COUNT(*) FROM config");
+        start(configurer);
+        Object fileKey = Files.readAttributes(snapshot.toPath(), BasicFileAttributes.class).fileKey();
+        long old = System.currentTimeMillis() - 60000L;
+
+        // probe unchanged
+        Assert.assertTrue(snapshot.setLastModified(old));
+        configurer.refresh();
+        Assert.assertTrue(snapshot.lastModified() > old);
+
+        // probe changed, same rows
+        Assert.assertTrue(snapshot.setLastModified(old));
+        jdbcTemplate.update("UPDATE config SET version = 2 WHERE name = 'a'");
+        configurer.refresh();
+        Assert.assertTrue(snapshot.lastModified() > old);
+
+        // not rewritten
+        Assert.assertEquals(fileKey, Files.readAttributes(snapshot.toPath(), BasicFileAttributes.class).fileKey());
+    }
+
+    @Test
+    public void testRefreshKeepsFileLayer()
+    {
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setFileLocation("classpath:environment.properties");
+        start(configurer);
+        PropertyStore fileLayer = configurer.getPropertyStore().getLayers().get(1);
+        Assert.assertEquals("property", configurer.getProperty("stringProperty"));
+
+        jdbcTemplate.update("UPDATE config SET val = '3' WHERE name = 'a'");
+        configurer.refresh();
+
+        // only the database layer is replaced
+        Assert.assertEquals("3", configurer.getProperty("a"));
+        Assert.assertSame(fileLayer, configurer.getPropertyStore().getLayers().get(1));
+        Assert.assertEquals("property", configurer.getProperty("stringProperty"));
+    }
+
+    @Test
+    public void testQueryVariables()
+    {
+        jdbcTemplate.execute("ALTER TABLE config ADD COLUMN appl VARCHAR(255)");
+        jdbcTemplate.execute("ALTER TABLE config ADD COLUMN tenant VARCHAR(255)");
+        jdbcTemplate.update("UPDATE config SET appl = 'shop', tenant = 'acme' WHERE name = 'a'");
+        jdbcTemplate.update("UPDATE config SET appl = 'other', tenant = 'acme' WHERE name = 'b'");
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("tenant", "acme");
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setSqlQuery("SELECT name, val FROM config WHERE appl = ${appl} AND tenant = ${contextParam/tenant}");
+        start(configurer, new GenericWebApplicationContext(servletContext("/webapps/shop/", parameters)));
+
+        Assert.assertEquals("1", configurer.getProperty("a"));
+        Assert.assertNull(configurer.getProperty("b"));
+    }
+
+    @Test
+    public void testUnresolvedQueryVariables()
+    {
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setSqlQuery("SELECT name, val FROM config WHERE name = ${contextParam/missing}");
+        try
+        {
+            start(configurer, new GenericWebApplicationContext(servletContext(
+                "/webapps/shop/",
+                Collections.<String, String> emptyMap())));
+            Assert.fail("Unresolved variable not detected");
+        }
+        catch (BeanInitializationException e)
+        {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("${contextParam/missing}"));
+        }
+    }
+
+    private DatabaseEnvironmentPropertyConfigurer configurer()
+    {
+        DatabaseEnvironmentPropertyConfigurer configurer = new DatabaseEnvironmentPropertyConfigurer();
+        configurer.setDataSource(dataSource);
+        configurer.setSqlQuery("SELECT name, val, version, deleted FROM config");
+        return configurer;
+    }
+
+    private DatabaseEnvironmentPropertyConfigurer start(DatabaseEnvironmentPropertyConfigurer configurer)
+    {
+        return start(configurer, new GenericApplicationContext());
+    }
+
+    private DatabaseEnvironmentPropertyConfigurer start(DatabaseEnvironmentPropertyConfigurer configurer,
+        GenericApplicationContext applicationContext)
+    {
+        context = applicationContext;
+        configurer.setApplicationContext(context);
+        context.addBeanFactoryPostProcessor(configurer);
+        context.addApplicationListener(configurer);
+        context.refresh();
+        return configurer;
+    }
+
+    /**
+     * A minimal servlet context, the servlet 2.5 api doesn't come with a mock.
+     */
+    private ServletContext servletContext(final String realPath, final Map<String, String> parameters)
+    {
+        return (ServletContext) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[]{ServletContext.class },
+            (proxy, method, args) -> {
+                switch (method.getName())
+                {
+                    case "getRealPath" :
+                        return realPath;
+                    case "getInitParameter" :
+                        return parameters.get(args[0]);
+                    case "getInitParameterNames" :
+                        return Collections.enumeration(parameters.keySet());
+                    case "getAttributeNames" :
+                        return Collections.emptyEnumeration();
+                    case "hashCode" :
+                        return System.identityHashCode(proxy);
+                    case "equals" :
+                        return proxy == args[0];
+                    case "toString" :
+                        return "ServletContext " + realPath;
+                    default :
+                        return null;
+                }
+            });
+    }
+
+    private void writeSnapshot()
+    {
+        DatabaseEnvironmentPropertyConfigurer configurer = configurer();
+        configurer.setDatabaseSnapshotFile(snapshot);
+        start(configurer);
+        context.close();
+        context = null;
+        Assert.assertTrue(snapshot.isFile());
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ *
+ * openutils deployment tools (http://www.openmindlab.com/lab/products/deployment.html)
+ * Copyright(C) 2007-2019, Openmind S.r.l. http://www.openmindonline.it
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package it.openutils.deployment.spring;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Checks that {@link PropertiesParser} gives the same results as {@link Properties#load(java.io.Reader)}.
+ * @author fgiust
+ * @version $Id$
+ */
+public class PropertiesParserTest
+{
+
+    @Test
+    public void testSeparators() throws IOException
+    {
+        assertParity("a=1\nb:2\nc 3\nd\t4\ne = 5\nf : 6\ng  =  7  \nh\ni=\nj==8\nk::9\nl =:10\n");
+    }
+
+    @Test
+    public void testContinuationLines() throws IOException
+    {
+        assertParity("a=one \\\n    two \\\n\tthree\nb=x\\\r\n  y\nc=\\\n\nd=1\\\\\ne=2\\\\\\\n  3\n");
+    }
+
+    @Test
+    public void testUnicodeEscapes() throws IOException
+    {
+        assertParity("a=\\u00e8\\u65E5\nb\\u003d=c\nd=\\t\\n\\r\\f\\q\\\\\n");
+    }
+
+    @Test
+    public void testMalformedUnicodeEscape() throws IOException
+    {
+        assertBothFail("a=\\u00g0\n");
+        assertBothFail("a=\\u00e");
+    }
+
+    @Test
+    public void testTrailingBackslash() throws IOException
+    {
+        assertParity("a=1\\");
+        assertParity("a=1\nb=2\\\n");
+        assertParity("a\\");
+    }
+
+    @Test
+    public void testComments() throws IOException
+    {
+        assertParity("# comment\n! comment\n  # indented\na=1 # not a comment\n!b=2\n");
+        assertParity("c=3\\\n# continued, not a comment\n");
+        assertParity("a=1\n# comment at the end");
+        assertParity("a=1\n! comment \\\nb=2");
+    }
+
+    @Test
+    public void testBlankKeys() throws IOException
+    {
+        assertParity("=value\n :other\n\n   \n\t\f\n");
+    }
+
+    @Test
+    public void testEscapedKeys() throws IOException
+    {
+        assertParity("a\\=b=1\nc\\:d:2\ne\\ f 3\n\\#g=4\n");
+    }
+
+    @Test
+    public void testDuplicateKeys() throws IOException
+    {
+        assertParity("a=1\na=2\n");
+    }
+
+    @Test
+    public void testLineEndings() throws IOException
+    {
+        assertParity("a=1\rb=2\r\nc=3\n\r\nd=4");
+    }
+
+    @Test
+    public void testUtf8() throws IOException
+    {
+        assertParity("caff\u00e8=\u00e8 \u65e5\u672c \u20ac\nb=\\u00e8\n", StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testUtf16() throws IOException
+    {
+        assertParity("a=\u65e5\u672c\nb : \u20ac\n", StandardCharsets.UTF_16);
+    }
+
+    @Test
+    public void testMalformedUtf8IsReplaced() throws IOException
+    {
+        byte[] content = new byte[]{'a', '=', (byte) 0xe8, 'x', '\n', 'b', '=', (byte) 0xc3 };
+        Assert.assertEquals(load(content, StandardCharsets.UTF_8), parse(content, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSkippedValues() throws IOException
+    {
+        final Properties properties = new Properties();
+        PropertiesParser.parse("a=1\nb=2\nc=3\n", new PropertiesParser.Handler()
+        {
+
+            public boolean accept(String key)
+            {
+                return !"b".equals(key);
+            }
+
+            public void property(String key, String value)
+            {
+                properties.setProperty(key, value);
+            }
+        });
+        Assert.assertEquals(2, properties.size());
+        Assert.assertNull(properties.getProperty("b"));
+    }
+
+    @Test
+    public void testFile() throws IOException
+    {
+        String text = "a=\u00e8\nb=one \\\n  two\n";
+        File file = File.createTempFile("parser", ".properties");
+        try
+        {
+            Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+            Properties parsed = new Properties();
+            long bytes = PropertiesParser.parse(file.toURI().toURL(), StandardCharsets.UTF_8, handler(parsed));
+            Assert.assertEquals(file.length(), bytes);
+            Assert.assertEquals(load(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), parsed);
+
+            // not locked by a mapping
+            Assert.assertTrue(file.delete());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private void assertParity(String text) throws IOException
+    {
+        assertParity(text, StandardCharsets.ISO_8859_1);
+        Properties parsed = new Properties();
+        PropertiesParser.parse(text, handler(parsed));
+        Assert.assertEquals(load(text.getBytes(StandardCharsets.ISO_8859_1), null), parsed);
+    }
+
+    private void assertParity(String text, Charset charset) throws IOException
+    {
+        byte[] content = text.getBytes(charset);
+        Properties expected = load(content, charset);
+        Assert.assertEquals(expected, parse(content, charset));
+
+        Properties streamed = new Properties();
+        PropertiesParser.parse(new ByteArrayInputStream(content), charset, handler(streamed));
+        Assert.assertEquals(expected, streamed);
+    }
+
+    private void assertBothFail(String text) throws IOException
+    {
+        byte[] content = text.getBytes(StandardCharsets.ISO_8859_1);
+        try
+        {
+            load(content, null);
+            Assert.fail("Properties.load() accepted " + text);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        try
+        {
+            parse(content, null);
+            Assert.fail("PropertiesParser accepted " + text);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    private Properties load(byte[] content, Charset charset) throws IOException
+    {
+        Properties properties = new Properties();
+        if (charset == null)
+        {
+            properties.load(new ByteArrayInputStream(content));
+        }
+        else
+        {
+            properties.load(new InputStreamReader(new ByteArrayInputStream(content), charset));
+        }
+        return properties;
+    }
+
+    private Properties parse(byte[] content, Charset charset)
+    {
+        Properties properties = new Properties();
+        PropertiesParser.parse(ByteBuffer.wrap(content), charset, handler(properties));
+        return properties;
+    }
+
+    private PropertiesParser.Handler handler(final Properties properties)
+    {
+        return new PropertiesParser.Handler()
+        {
+
+            public boolean accept(String key)
+            {
+                return true;
+            }
+
+            public void property(String key, String value)
+            {
+                properties.setProperty(key, value);
+            }
+        };
+    }
+}